@@ -1,2 +1,2 @@
 if not exist classes mkdir classes
-javac -cp . -d classes ir/Engine.java ir/HashedIndex.java ir/HITSRanker.java ir/Index.java ir/Indexer.java ir/KGramIndex.java ir/KGramPostingsEntry.java ir/NormalizationType.java ir/PersistentHashedIndex.java ir/PostingsEntry.java ir/PostingsList.java ir/Query.java ir/QueryType.java ir/RankingType.java ir/Searcher.java ir/SearchGUI.java ir/SpellChecker.java ir/SpellingOptionsDialog.java ir/Tokenizer.java ir/TokenTest.java 
+javac -cp . -d classes ir/Benchmark.java ir/CombinedScorer.java ir/Engine.java ir/HashedIndex.java ir/HITSCache.java ir/HITSRanker.java ir/Index.java ir/Indexer.java ir/IntersectionCache.java ir/KGramIndex.java ir/LinkGraph.java ir/KGramPostings.java ir/DeletionIndex.java ir/EditDistance.java ir/LevenshteinAutomaton.java ir/RegexLiterals.java ir/NormalizationType.java ir/PageRank.java ir/PermutermIndex.java ir/PersistentHashedIndex.java ir/PostingsEntry.java ir/PostingsList.java ir/PostingsUnion.java ir/Query.java ir/QueryType.java ir/RankingType.java ir/RankStore.java ir/ResultCache.java ir/Searcher.java ir/SearchGUI.java ir/SpellChecker.java ir/SpellingOptionsDialog.java ir/StaticScores.java ir/TermTable.java ir/TopicRanks.java ir/TopKCollector.java ir/Tokenizer.java ir/TokenTest.java 
@@ -0,0 +1,615 @@
+package ir;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ *  Measures the latency of parts of the search engine on a corpus, without
+ *  starting the GUI.
+ *
+ *  Usage: java ir.Benchmark -d dir [-p patterns_file] [-r rank_file] [-links links_file -titles titles_file] -b benchmark
+ *
+ *  Available benchmarks:
+ *      combination  single-pass vs. HashMap based COMBINATION ranking, 1- to 10-term queries
+ *      hits         HITS result cache: cold, repeated and slightly changed queries
+ *      cascade      cascade HITS (top-N tf-idf candidates, limited fan-out) vs. full HITS, and the same for PageRank
+ *      resultcache  result cache on a stream of queries where popular queries repeat
+ *      intersection intersection cache on Boolean and phrase queries sharing frequent term pairs
+ *      wildcard     wildcard expansion by k-grams and by permuterm, and with the expansion cache
+ *      editdistance spelling edit distance: full matrix vs. bit-parallel and banded kernel, in candidates/s
+ *      spelling     spelling checks of misspelled frequent terms, with candidates from k-grams and from the deletion index
+ *      pagerank     power iteration and Monte Carlo PageRank on synthetic graphs of 1M to 10M links
+ *                   (needs no corpus)
+ */
+public class Benchmark {
+
+    /** Number of queries per measurement. */
+    static final int NUM_QUERIES = 50;
+
+    /** Query terms are drawn from this many of the most frequent terms. */
+    static final int TERM_POOL_SIZE = 2000;
+
+    Index index = new HashedIndex();
+    KGramIndex kgIndex = new KGramIndex(2);
+    Indexer indexer;
+    Searcher searcher;
+
+    ArrayList<String> dirNames = new ArrayList<String>();
+    String patterns_file = null;
+    String rank_file = "../pagerank/davisRank.txt";
+    String links_file = Searcher.LINKS_FNAME;
+    String titles_file = Searcher.TITLES_FNAME;
+    String benchmark = null;
+
+    /** Frequent terms of the corpus, used to generate queries. */
+    ArrayList<String> termPool = new ArrayList<String>();
+
+    Random random = new Random(42);
+
+
+    public Benchmark( String[] args ) {
+        decodeArgs(args);
+        if (dirNames.isEmpty()) return;
+        indexer = new Indexer(index, kgIndex, patterns_file);
+        indexer.readPageRank(rank_file);
+        long startTime = System.currentTimeMillis();
+        for (String dirName : dirNames) {
+            indexer.processFiles(new File(dirName), true, true);
+        }
+        System.err.println(String.format("Indexed %d documents in %.1f seconds", index.docNames.size(), (System.currentTimeMillis() - startTime) / 1000.0));
+        searcher = new Searcher(index, kgIndex);
+        /* the other benchmarks time the search itself */
+        searcher.resultCache = null;
+        searcher.intersectionCache = null;
+        searcher.pageRanks = RankStore.fromNames(index.docRanks, index);
+        searcher.loadLinkGraph(links_file, titles_file, null);
+
+        ArrayList<String> terms = new ArrayList<String>(index.df.keySet());
+        Collections.sort(terms, (a, b) -> Integer.compare(index.df.get(b), index.df.get(a)));
+        termPool.addAll(terms.subList(0, Math.min(TERM_POOL_SIZE, terms.size())));
+    }
+
+    /** Generates NUM_QUERIES random queries of <code>length</code> frequent terms. */
+    List<Query> randomQueries( int length ) {
+        ArrayList<Query> queries = new ArrayList<Query>();
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < length; j++) {
+                sb.append(termPool.get(random.nextInt(termPool.size()))).append(' ');
+            }
+            queries.add(new Query(sb.toString()));
+        }
+        return queries;
+    }
+
+    /** A copy of a term with one random deletion, insertion, substitution or transposition. */
+    String misspell( String term ) {
+        StringBuilder sb = new StringBuilder(term);
+        int i = random.nextInt(term.length());
+        char c = (char) ('a' + random.nextInt(26));
+        switch (term.length() > 2 ? random.nextInt(4) : 1 + random.nextInt(2)) {
+            case 0: sb.deleteCharAt(i); break;
+            case 1: sb.insert(i, c); break;
+            case 2: sb.setCharAt(i, c); break;
+            default:
+                i = Math.min(i, term.length() - 2);
+                sb.setCharAt(i, term.charAt(i + 1));
+                sb.setCharAt(i + 1, term.charAt(i));
+        }
+        return sb.toString();
+    }
+
+    /** Something to be timed on a query. */
+    interface QueryTask {
+        PostingsList run( Query query );
+    }
+
+    /** Returns the average time in milliseconds of running a task on the queries, after one warm-up round. */
+    static double averageMillis( List<Query> queries, QueryTask task ) {
+        for (Query query : queries) {
+            task.run(query);
+        }
+        long startTime = System.nanoTime();
+        for (Query query : queries) {
+            task.run(query);
+        }
+        return (System.nanoTime() - startTime) / 1e6 / queries.size();
+    }
+
+    /** Whether two result lists start with the same k documents. */
+    static boolean sameTopK( PostingsList a, PostingsList b, int k ) {
+        for (int i = 0; i < k; i++) {
+            if (i >= a.size() || i >= b.size()) return a.size() == b.size();
+            if (a.get(i).docID != b.get(i).docID && Math.abs(a.get(i).score - b.get(i).score) > 1e-12) return false;
+        }
+        return true;
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    void benchmarkCombination() {
+        System.out.println("terms  HashMap(ms)  single-pass(ms)  speedup  same top 10");
+        for (int length = 1; length <= 10; length++) {
+            List<Query> queries = randomQueries(length);
+            double legacy = averageMillis(queries, q -> searcher.combinedSearch(q.queryterm, NormalizationType.NUMBER_OF_WORDS, q));
+            double fused = averageMillis(queries, q -> searcher.search(q, QueryType.RANKED_QUERY, RankingType.COMBINATION, NormalizationType.NUMBER_OF_WORDS));
+            boolean same = true;
+            for (Query q : queries) {
+                same &= sameTopK(searcher.combinedSearch(q.queryterm, NormalizationType.NUMBER_OF_WORDS, q),
+                                 searcher.search(q, QueryType.RANKED_QUERY, RankingType.COMBINATION, NormalizationType.NUMBER_OF_WORDS), 10);
+            }
+            System.out.println(String.format("%5d  %11.3f  %15.3f  %6.1fx  %s", length, legacy, fused, legacy / fused, same));
+        }
+    }
+
+
+    void benchmarkHits() {
+        HITSRanker ranker = searcher.hitsRanker();
+        if (ranker == null) return;
+        ranker.cache.clear();
+        List<Query> queries = randomQueries(1);
+        /* the same queries with a rare term added, so their root sets overlap the cached ones */
+        List<Query> extended = new ArrayList<Query>();
+        for (Query q : queries) {
+            String rare = termPool.get(termPool.size() - 1 - random.nextInt(termPool.size() / 4));
+            extended.add(new Query(q.queryterm.get(0).term + " " + rare));
+        }
+        QueryTask hits = q -> searcher.search(q, QueryType.RANKED_QUERY, RankingType.HITS, NormalizationType.NUMBER_OF_WORDS);
+        double cold = 0, repeated = 0, changed = 0;
+        int coldIterations = 0, changedIterations = 0;
+        for (int i = 0; i < queries.size(); i++) {
+            long t0 = System.nanoTime();
+            hits.run(queries.get(i));
+            coldIterations += ranker.lastIterations;
+            long t1 = System.nanoTime();
+            hits.run(queries.get(i));
+            long t2 = System.nanoTime();
+            hits.run(extended.get(i));
+            changedIterations += ranker.lastIterations;
+            long t3 = System.nanoTime();
+            cold += (t1 - t0) / 1e6;
+            repeated += (t2 - t1) / 1e6;
+            changed += (t3 - t2) / 1e6;
+        }
+        int n = queries.size();
+        System.out.println(String.format("cold query:      %8.3f ms, %5.1f iterations", cold / n, (double) coldIterations / n));
+        System.out.println(String.format("repeated query:  %8.3f ms", repeated / n));
+        System.out.println(String.format("one term added:  %8.3f ms, %5.1f iterations", changed / n, (double) changedIterations / n));
+        System.out.println(ranker.cache.stats());
+    }
+
+
+    void benchmarkResultCache() {
+        /* 1000 searches drawn from 200 distinct queries, with a skewed popularity */
+        List<Query> distinct = randomQueries(2);
+        while (distinct.size() < 200) {
+            distinct.addAll(randomQueries(1 + distinct.size() % 3));
+        }
+        ArrayList<Query> stream = new ArrayList<Query>();
+        for (int i = 0; i < 1000; i++) {
+            stream.add(distinct.get((int) (distinct.size() * Math.pow(random.nextDouble(), 3))).copy());
+        }
+        RankingType[] rankings = { RankingType.TF_IDF, RankingType.COMBINATION, RankingType.HITS };
+        System.out.println("ranking      uncached(ms)  cached(ms)  hit rate");
+        for (RankingType ranking : rankings) {
+            QueryTask task = q -> searcher.search(q, QueryType.RANKED_QUERY, ranking, NormalizationType.NUMBER_OF_WORDS);
+            searcher.resultCache = null;
+            double uncached = averageMillis(stream, task);
+            searcher.resultCache = new ResultCache(1000, 64L << 20);
+            long startTime = System.nanoTime();
+            for (Query q : stream) {
+                task.run(q);
+            }
+            double cached = (System.nanoTime() - startTime) / 1e6 / stream.size();
+            System.out.println(String.format("%-11s  %12.3f  %10.3f  %8.2f", ranking, uncached, cached,
+                (double) searcher.resultCache.hits() / (searcher.resultCache.hits() + searcher.resultCache.misses())));
+            System.out.println("    " + searcher.resultCache.stats());
+        }
+        searcher.resultCache = null;
+    }
+
+    void benchmarkIntersection() {
+        /* intersection queries: 20 popular pairs of the 100 most frequent terms, each with a random third term half of the time */
+        ArrayList<String> pairs = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            pairs.add(termPool.get(random.nextInt(Math.min(100, termPool.size()))) + " " + termPool.get(random.nextInt(Math.min(100, termPool.size()))));
+        }
+        ArrayList<Query> intersections = new ArrayList<Query>();
+        for (int i = 0; i < 1000; i++) {
+            String extra = random.nextBoolean() ? " " + termPool.get(random.nextInt(termPool.size())) : "";
+            intersections.add(new Query(pairs.get(random.nextInt(pairs.size())) + extra));
+        }
+        /* phrase queries: 3- and 4-word windows of indexed documents, of which 20 repeat their first two words */
+        ArrayList<Query> phrases = new ArrayList<Query>();
+        ArrayList<String> windows = new ArrayList<String>();
+        for (int docID = 0; windows.size() < 200 && docID < index.docNames.size(); docID += 1 + random.nextInt(5)) {
+            try {
+                Reader reader = new InputStreamReader(new FileInputStream(index.docNames.get(docID)), "UTF-8");
+                Tokenizer tok = new Tokenizer(reader, true, false, true, patterns_file);
+                ArrayList<String> tokens = new ArrayList<String>();
+                while (tok.hasMoreTokens() && tokens.size() < 50) {
+                    tokens.add(tok.nextToken());
+                }
+                if (tokens.size() >= 4) {
+                    int start = random.nextInt(tokens.size() - 3);
+                    windows.add(String.join(" ", tokens.subList(start, start + 3 + random.nextInt(2))));
+                }
+                reader.close();
+            } catch (IOException e) {
+                System.err.println("Could not read " + index.docNames.get(docID));
+            }
+        }
+        if (windows.isEmpty()) return;
+        for (int i = 0; i < 1000; i++) {
+            phrases.add(new Query(windows.get((int) (Math.min(20, windows.size()) * Math.pow(random.nextDouble(), 2)))));
+        }
+
+        System.out.println("query type           uncached(ms)  cached(ms)  same results");
+        QueryType[] types = { QueryType.INTERSECTION_QUERY, QueryType.PHRASE_QUERY };
+        List<List<Query>> streams = List.of(intersections, phrases);
+        for (int t = 0; t < types.length; t++) {
+            QueryType type = types[t];
+            List<Query> stream = streams.get(t);
+            QueryTask task = q -> searcher.search(q, type, RankingType.TF_IDF, NormalizationType.NUMBER_OF_WORDS);
+            searcher.intersectionCache = null;
+            double uncached = averageMillis(stream, task);
+            ArrayList<PostingsList> expected = new ArrayList<PostingsList>();
+            for (Query q : stream) {
+                expected.add(task.run(q));
+            }
+            searcher.intersectionCache = new IntersectionCache(32L << 20);
+            double cached = averageMillis(stream, task);
+            boolean same = true;
+            for (int i = 0; i < stream.size(); i++) {
+                same &= sameDocs(expected.get(i), task.run(stream.get(i)));
+            }
+            System.out.println(String.format("%-19s  %12.3f  %10.3f  %s", type, uncached, cached, same));
+            System.out.println("    " + searcher.intersectionCache.stats());
+        }
+        searcher.intersectionCache = null;
+    }
+
+    void benchmarkWildcard() {
+        String[] patterns = { "a*", "*tion", "*ing", "s*tion", "mo*y", "s*s", "*e*", "con*ing*" };
+        int repeats = 200;
+        PermutermIndex permuterm = kgIndex.buildPermuterm();
+        System.out.println("pattern   terms  k-grams(ms)  permuterm(ms)  cached(ms)");
+        for (String pattern : patterns) {
+            int terms = kgIndex.expandWildcard(pattern).length;
+            long startTime = System.nanoTime();
+            for (int i = 0; i < repeats; i++) {
+                kgIndex.expandWithKGrams(pattern);
+            }
+            double kgrams = (System.nanoTime() - startTime) / 1e6 / repeats;
+            startTime = System.nanoTime();
+            for (int i = 0; i < repeats; i++) {
+                int[] ids = permuterm.ids(permuterm.range(PermutermIndex.key(pattern)));
+                if (pattern.indexOf('*') != pattern.lastIndexOf('*')) {
+                    kgIndex.removeFalsePositive(ids, pattern);
+                }
+            }
+            double rotations = (System.nanoTime() - startTime) / 1e6 / repeats;
+            startTime = System.nanoTime();
+            for (int i = 0; i < repeats; i++) {
+                kgIndex.expandWildcard(pattern);
+            }
+            double cached = (System.nanoTime() - startTime) / 1e6 / repeats;
+            System.out.println(String.format("%-8s  %5d  %11.3f  %13.3f  %10.4f", pattern, terms, kgrams, rotations, cached));
+        }
+        System.out.println(kgIndex.wildcardCacheStats());
+        System.out.println(String.format("K-gram index: %d terms, %d k-grams, about %d kB", kgIndex.size(), kgIndex.index.size(), kgIndex.memoryBytes() / 1024));
+    }
+
+    void benchmarkEditDistance() {
+        /* the pairs check compares: misspelled frequent terms and the terms sharing a k-gram with them */
+        ArrayList<String> shortTerms = new ArrayList<String>(), shortCandidates = new ArrayList<String>();
+        KGramPostings.Cursor cursor = new KGramPostings.Cursor(null);
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            String term = misspell(termPool.get(random.nextInt(termPool.size())));
+            HashSet<Integer> ids = new HashSet<Integer>();
+            for (String kgram : kgIndex.kgramsFromWildcard(term)) {
+                for (int id = cursor.reset(kgIndex.getPostings(kgram)).id(); id != KGramPostings.Cursor.END; id = cursor.next()) {
+                    if (ids.add(id)) {
+                        shortTerms.add(term);
+                        shortCandidates.add(kgIndex.getTermByID(id));
+                    }
+                }
+            }
+        }
+        /* terms over 64 characters, against misspelled copies and unrelated terms of similar length */
+        ArrayList<String> longTerms = new ArrayList<String>(), longCandidates = new ArrayList<String>();
+        for (int i = 0; i < 100000; i++) {
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() <= 64) {
+                sb.append(termPool.get(random.nextInt(termPool.size())));
+            }
+            String term = sb.toString();
+            longTerms.add(term);
+            longCandidates.add(i % 2 == 0 ? misspell(misspell(term)) : misspell(term.substring(1) + term.charAt(0)));
+        }
+        System.out.println("terms          pairs  matrix(cand/s)  kernel(cand/s)  speedup  same");
+        List<List<ArrayList<String>>> sets = List.of(List.of(shortTerms, shortCandidates), List.of(longTerms, longCandidates));
+        String[] names = { "<= 64 chars", "> 64 chars" };
+        for (int s = 0; s < sets.size(); s++) {
+            ArrayList<String> terms = sets.get(s).get(0), candidates = sets.get(s).get(1);
+            int max = SpellChecker.MAX_EDIT_DISTANCE;
+            int[] expected = new int[terms.size()], found = new int[terms.size()];
+            double matrix = 0, kernel = 0;
+            for (int round = 0; round < 2; round++) {
+                long startTime = System.nanoTime();
+                for (int i = 0; i < terms.size(); i++) {
+                    expected[i] = Math.min(SpellChecker.editDistance(terms.get(i), candidates.get(i)), max + 1);
+                }
+                matrix = terms.size() / ((System.nanoTime() - startTime) / 1e9);
+                startTime = System.nanoTime();
+                EditDistance distance = null;
+                for (int i = 0; i < terms.size(); i++) {
+                    /* one kernel per query term, as in check */
+                    if (distance == null || !distance.term.equals(terms.get(i))) {
+                        distance = new EditDistance(terms.get(i), max);
+                    }
+                    found[i] = distance.distance(candidates.get(i));
+                }
+                kernel = terms.size() / ((System.nanoTime() - startTime) / 1e9);
+            }
+            System.out.println(String.format("%-11s  %8d  %14.0f  %14.0f  %7.1f  %s", names[s], terms.size(), matrix, kernel, kernel / matrix, Arrays.equals(expected, found)));
+        }
+    }
+
+    void benchmarkSpelling() {
+        SpellChecker speller = new SpellChecker(index, kgIndex);
+        ArrayList<Query> queries = new ArrayList<Query>();
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            queries.add(new Query(misspell(termPool.get(random.nextInt(termPool.size())))));
+        }
+        int limit = 1000;
+        System.out.println("candidates        check(ms)  same");
+        ArrayList<String[]> expected = new ArrayList<String[]>();
+        double kgrams = averageCheckMillis(speller, queries, limit, expected);
+        System.out.println(String.format("%-16s  %9.3f", "k-grams", kgrams));
+
+        long startTime = System.nanoTime();
+        DeletionIndex deletes = speller.buildDeletionIndex();
+        double build = (System.nanoTime() - startTime) / 1e9;
+        ArrayList<String[]> found = new ArrayList<String[]>();
+        double deletions = averageCheckMillis(speller, queries, limit, found);
+        boolean same = true;
+        for (int i = 0; i < queries.size(); i++) {
+            same &= sameSuggestions(expected.get(i), found.get(i));
+        }
+        System.out.println(String.format("%-16s  %9.3f  %s", "deletion index", deletions, same));
+        System.out.println(String.format("Deletion index: %d terms, %d deletes, %d ids, about %d kB, built in %.1f seconds",
+            deletes.size, deletes.hashes.length, deletes.ids.length, deletes.memoryBytes() / 1024, build));
+        speller.deletions = null;
+    }
+
+    /** Average time of a spelling check of each query, after one warm-up round. Collects the suggestions. */
+    static double averageCheckMillis( SpellChecker speller, List<Query> queries, int limit, List<String[]> suggestions ) {
+        for (Query query : queries) {
+            suggestions.add(speller.check(query, limit));
+        }
+        long startTime = System.nanoTime();
+        for (Query query : queries) {
+            speller.check(query, limit);
+        }
+        return (System.nanoTime() - startTime) / 1e6 / queries.size();
+    }
+
+    /** Whether two checks suggested the same corrections, in any order among equal scores. */
+    static boolean sameSuggestions( String[] a, String[] b ) {
+        if (a == null || b == null) return a == b;
+        String[] sortedA = a.clone(), sortedB = b.clone();
+        Arrays.sort(sortedA);
+        Arrays.sort(sortedB);
+        return Arrays.equals(sortedA, sortedB);
+    }
+
+    /** Whether two unranked result lists hold the same documents. */
+    static boolean sameDocs( PostingsList a, PostingsList b ) {
+        int sizeA = a == null ? 0 : a.size(), sizeB = b == null ? 0 : b.size();
+        if (sizeA != sizeB) return false;
+        for (int i = 0; i < sizeA; i++) {
+            if (a.get(i).docID != b.get(i).docID) return false;
+        }
+        return true;
+    }
+
+    /** Fraction of the top k documents of <code>reference</code> that are also in the top k of <code>result</code>. */
+    static double overlap( PostingsList reference, PostingsList result, int k ) {
+        HashSet<Integer> top = new HashSet<Integer>();
+        for (int i = 0; i < k && i < reference.size(); i++) {
+            top.add(reference.get(i).docID);
+        }
+        int common = 0;
+        for (int i = 0; i < k && i < result.size(); i++) {
+            if (top.contains(result.get(i).docID)) common++;
+        }
+        return top.isEmpty() ? 1 : (double) common / top.size();
+    }
+
+    void benchmarkCascade() {
+        HITSRanker ranker = searcher.hitsRanker();
+        if (ranker == null) return;
+        List<Query> queries = randomQueries(2);
+        /* the HITS cache is cleared before every query, so each one is ranked from scratch */
+        QueryTask hits = q -> {
+            ranker.cache.clear();
+            return searcher.search(q, QueryType.RANKED_QUERY, RankingType.HITS, NormalizationType.NUMBER_OF_WORDS);
+        };
+        searcher.cascadeSize = 0;
+        ArrayList<PostingsList> full = new ArrayList<PostingsList>();
+        for (Query q : queries) {
+            full.add(hits.run(q));
+        }
+        double fullMillis = averageMillis(queries, hits);
+        System.out.println("HITS:");
+        System.out.println("    N  fan-out   time(ms)  speedup  top-10 overlap");
+        System.out.println(String.format("  all      all  %9.3f  %6.1fx  %14.2f", fullMillis, 1.0, 1.0));
+        for (int n : new int[] { 50, 200, 1000 }) {
+            for (int fanOut : new int[] { 10, 50, 0 }) {
+                searcher.cascadeSize = n;
+                searcher.fanOut = fanOut;
+                double millis = averageMillis(queries, hits);
+                double overlap = 0;
+                for (int i = 0; i < queries.size(); i++) {
+                    overlap += overlap(full.get(i), hits.run(queries.get(i)), 10);
+                }
+                System.out.println(String.format("%5d  %7s  %9.3f  %6.1fx  %14.2f",
+                    n, fanOut == 0 ? "all" : String.valueOf(fanOut), millis, fullMillis / millis, overlap / queries.size()));
+            }
+        }
+        searcher.fanOut = 0;
+
+        /* PageRank only reranks the candidates, so it differs from full PageRank ranking in the documents it sees */
+        QueryTask pageRank = q -> searcher.search(q, QueryType.RANKED_QUERY, RankingType.PAGERANK, NormalizationType.NUMBER_OF_WORDS);
+        searcher.cascadeSize = 0;
+        full.clear();
+        for (Query q : queries) {
+            full.add(pageRank.run(q));
+        }
+        fullMillis = averageMillis(queries, pageRank);
+        System.out.println("PageRank:");
+        System.out.println("    N   time(ms)  speedup  top-10 overlap");
+        System.out.println(String.format("  all  %9.3f  %6.1fx  %14.2f", fullMillis, 1.0, 1.0));
+        for (int n : new int[] { 50, 200, 1000 }) {
+            searcher.cascadeSize = n;
+            double millis = averageMillis(queries, pageRank);
+            double overlap = 0;
+            for (int i = 0; i < queries.size(); i++) {
+                overlap += overlap(full.get(i), pageRank.run(queries.get(i)), 10);
+            }
+            System.out.println(String.format("%5d  %9.3f  %6.1fx  %14.2f", n, millis, fullMillis / millis, overlap / queries.size()));
+        }
+        searcher.cascadeSize = 0;
+    }
+
+    /**
+     *  Generates a graph with <code>numEdges</code> links and an average out-degree
+     *  of 10. Link targets are skewed towards low node IDs, giving a few heavily
+     *  linked pages, and about 5% of the pages have no out-links.
+     */
+    LinkGraph syntheticGraph( int numEdges ) {
+        int numNodes = numEdges / 10;
+        LinkGraph.IntList from = new LinkGraph.IntList();
+        LinkGraph.IntList to = new LinkGraph.IntList();
+        for (int e = 0; e < numEdges; e++) {
+            int source = random.nextInt(numNodes);
+            if (source % 20 == 0) continue;
+            from.add(source);
+            to.add((int) (numNodes * Math.pow(random.nextDouble(), 3)));
+        }
+        return LinkGraph.fromEdges(numNodes, from, to);
+    }
+
+    void benchmarkPageRank() {
+        System.out.println(String.format("%d threads", Runtime.getRuntime().availableProcessors()));
+        System.out.println("    links  power(s)  iterations  ms/iteration  Monte Carlo(s)  L1 error");
+        for (int numEdges : new int[] { 1000000, 2000000, 5000000, 10000000 }) {
+            PageRank pr = new PageRank(syntheticGraph(numEdges));
+            long startTime = System.nanoTime();
+            double[] exact = pr.powerIteration();
+            double power = (System.nanoTime() - startTime) / 1e9;
+            startTime = System.nanoTime();
+            double[] approx = pr.monteCarlo(1, 42);
+            double monteCarlo = (System.nanoTime() - startTime) / 1e9;
+            double error = 0;
+            for (int i = 0; i < exact.length; i++) {
+                error += Math.abs(exact[i] - approx[i]);
+            }
+            System.out.println(String.format("%9d  %8.2f  %10d  %12.1f  %14.2f  %8.4f",
+                pr.graph.numEdges(), power, pr.lastIterations, power * 1000 / pr.lastIterations, monteCarlo, error));
+        }
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    void run() {
+        if ("combination".equals(benchmark)) {
+            benchmarkCombination();
+        }
+        else if ("hits".equals(benchmark)) {
+            benchmarkHits();
+        }
+        else if ("cascade".equals(benchmark)) {
+            benchmarkCascade();
+        }
+        else if ("resultcache".equals(benchmark)) {
+            benchmarkResultCache();
+        }
+        else if ("intersection".equals(benchmark)) {
+            benchmarkIntersection();
+        }
+        else if ("wildcard".equals(benchmark)) {
+            benchmarkWildcard();
+        }
+        else if ("editdistance".equals(benchmark)) {
+            benchmarkEditDistance();
+        }
+        else if ("spelling".equals(benchmark)) {
+            benchmarkSpelling();
+        }
+        else if ("pagerank".equals(benchmark)) {
+            benchmarkPageRank();
+        }
+        else {
+            System.err.println("Unknown benchmark: " + benchmark);
+        }
+    }
+
+    private void decodeArgs( String[] args ) {
+        int i = 0;
+        while ( i < args.length ) {
+            if ( "-d".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    dirNames.add( args[i++] );
+                }
+            } else if ( "-p".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    patterns_file = args[i++];
+                }
+            } else if ( "-r".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    rank_file = args[i++];
+                }
+            } else if ( "-links".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    links_file = args[i++];
+                }
+            } else if ( "-titles".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    titles_file = args[i++];
+                }
+            } else if ( "-b".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    benchmark = args[i++];
+                }
+            } else {
+                System.err.println( "Unknown option: " + args[i] );
+                break;
+            }
+        }
+    }
+
+    public static void main( String[] args ) {
+        new Benchmark(args).run();
+    }
+}
@@ -0,0 +1,150 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import ir.Query.QueryTerm;
+
+/**
+ *  Scores ranked queries with COMBINATION ranking in one pass over the postings.
+ *
+ *  The tf-idf and PageRank parts are accumulated in arrays indexed by docID,
+ *  together with their sums over the matching documents, and the length
+ *  normalization is an array read of a precomputed inverse document length.
+ *  The blended score of every matching document then goes straight into a
+ *  top-k collector.
+ */
+public class CombinedScorer {
+
+    /** The index to be searched. */
+    private final Index index;
+
+    /** Accumulated tf-idf score per docID. */
+    private double[] tfIdfAcc = new double[0];
+
+    /** Accumulated PageRank score per docID. */
+    private double[] pageRankAcc = new double[0];
+
+    /** Query stamp per docID, used to reset the accumulators lazily. */
+    private int[] stamp = new int[0];
+
+    /** The docIDs touched by the current query. */
+    private int[] touched = new int[0];
+
+    /** The stamp of the current query. */
+    private int currentStamp = 0;
+
+    /** 1 / number of words, per docID. */
+    private double[] invLengths;
+
+    /** 1 / Euclidean length, per docID. */
+    private double[] invL2Lengths;
+
+
+    public CombinedScorer( Index index ) {
+        this.index = index;
+    }
+
+    /**
+     *  Returns the precomputed inverse lengths for a normalization type. They are
+     *  computed on first use, or again if documents have been added since.
+     */
+    private double[] normalizers( NormalizationType normType, int numDocs ) {
+        if (normType == NormalizationType.NUMBER_OF_WORDS) {
+            if (invLengths == null || invLengths.length < numDocs) {
+                invLengths = inverse(index.docLengths, numDocs);
+            }
+            return invLengths;
+        }
+        else if (normType == NormalizationType.EUCLIDEAN) {
+            if (invL2Lengths == null || invL2Lengths.length < numDocs) {
+                invL2Lengths = inverse(index.l2Lengths, numDocs);
+            }
+            return invL2Lengths;
+        }
+        else {
+            throw new IllegalArgumentException("No such normalization type!");
+        }
+    }
+
+    /** Returns 1 / length for every docID, sized to cover all docIDs in <code>lengths</code>. */
+    private static double[] inverse( Map<Integer, ? extends Number> lengths, int numDocs ) {
+        for (int docID : lengths.keySet()) {
+            numDocs = Math.max(numDocs, docID + 1);
+        }
+        double[] inv = new double[numDocs];
+        for (Map.Entry<Integer, ? extends Number> entry : lengths.entrySet()) {
+            inv[entry.getKey()] = 1.0 / entry.getValue().doubleValue();
+        }
+        return inv;
+    }
+
+    private void ensureCapacity( int numDocs ) {
+        if (stamp.length < numDocs) {
+            tfIdfAcc = new double[numDocs];
+            pageRankAcc = new double[numDocs];
+            stamp = new int[numDocs];
+            touched = new int[numDocs];
+            currentStamp = 0;
+        }
+    }
+
+    /**
+     *  Scores the documents matching any of the (expanded) query terms.
+     *
+     *  @param possibleCandidates The query terms, with wildcards expanded. Their weights scale their tf-idf scores.
+     *  @param pageRanks          Pageranks (or other static scores) by docID.
+     *  @param normType           Normalization of the tf-idf scores.
+     *  @param tfIdfWeight        Weight of tf-idf in the blend; PageRank gets the rest.
+     *  @param k                  Number of results to return, or 0 for all of them.
+     */
+    public synchronized PostingsList score( List<ArrayList<QueryTerm>> possibleCandidates, StaticScores pageRanks,
+                                            NormalizationType normType, double tfIdfWeight, int k ) {
+        double[] norm = normalizers(normType, index.docNames.size());
+        ensureCapacity(norm.length);
+        if (++currentStamp == 0) {
+            Arrays.fill(stamp, 0);
+            currentStamp = 1;
+        }
+
+        int numTouched = 0;
+        double sumTfIdf = 0, sumPageRank = 0;
+        for (ArrayList<QueryTerm> qtList : possibleCandidates) {
+            for (QueryTerm term : qtList) {
+                PostingsList pl = index.getPostings(term.term);
+                if (pl == null) continue;
+                double idf = Math.log(index.docNames.size() * 1.0 / pl.size());
+                for (int i = 0; i < pl.size(); i++) {
+                    PostingsEntry pe = pl.get(i);
+                    int docID = pe.docID;
+                    if (stamp[docID] != currentStamp) {
+                        stamp[docID] = currentStamp;
+                        tfIdfAcc[docID] = 0;
+                        pageRankAcc[docID] = 0;
+                        touched[numTouched++] = docID;
+                    }
+                    double tfIdf = pe.offset.size() * idf * norm[docID] * term.weight;
+                    double rank = pageRanks.get(docID);
+                    tfIdfAcc[docID] += tfIdf;
+                    pageRankAcc[docID] += rank;
+                    sumTfIdf += tfIdf;
+                    sumPageRank += rank;
+                }
+            }
+        }
+        if (numTouched == 0) {
+            return new PostingsList();
+        }
+
+        double tfIdfScale = sumTfIdf > 0 ? tfIdfWeight / sumTfIdf : 0;
+        double pageRankScale = sumPageRank > 0 ? (1 - tfIdfWeight) / sumPageRank : 0;
+        TopKCollector top = new TopKCollector(k > 0 ? Math.min(k, numTouched) : numTouched);
+        for (int i = 0; i < numTouched; i++) {
+            int docID = touched[i];
+            top.offer(docID, tfIdfAcc[docID] * tfIdfScale + pageRankAcc[docID] * pageRankScale);
+        }
+        return new PostingsList(top.toSortedList());
+    }
+}
@@ -0,0 +1,148 @@
+package ir;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ *  Maps the strings obtained by deleting up to MAX_DELETES characters from the
+ *  first PREFIX_LENGTH characters of every term to the ids of those terms, as
+ *  in SymSpell. Two terms within MAX_DELETES insertions and deletions of each
+ *  other share such a string, so the candidate corrections of a misspelled
+ *  term are found by looking up its own deletes, without reading any k-gram
+ *  postings.
+ *
+ *  The strings themselves are not stored: a delete is identified by a 64-bit
+ *  hash, truncated so that the term id fits next to it in one long. All (hash,
+ *  id) pairs are sorted as longs, and stored as the distinct hashes, the
+ *  offset of each hash's ids, and the ids. A hash collision only adds a
+ *  candidate, which the spelling checker then rejects.
+ */
+public class DeletionIndex {
+
+    /** Number of characters of a term its deletes are generated from. */
+    static final int PREFIX_LENGTH = 7;
+
+    /** Maximum number of characters deleted from a term. */
+    static final int MAX_DELETES = 2;
+
+    /** Terms the index was built from, and how many there were. */
+    final TermTable terms;
+    final int size;
+
+    /** Number of low bits of a packed pair that hold the term id. */
+    private final int idBits;
+
+    /** Sorted distinct truncated hashes. */
+    final long[] hashes;
+
+    /** The ids of hashes[i] are ids[offsets[i]] up to ids[offsets[i + 1]], in increasing order. */
+    final int[] offsets;
+    final int[] ids;
+
+
+    public DeletionIndex( TermTable terms ) {
+        this.terms = terms;
+        this.size = terms.size();
+        idBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(size));
+        long mask = (1L << idBits) - 1;
+
+        int[] starts = new int[size + 1];
+        for (int id = 0; id < size; id++) {
+            starts[id + 1] = starts[id] + numDeletes(Math.min(terms.length(id), PREFIX_LENGTH));
+        }
+        long[] pairs = new long[starts[size]];
+        IntStream.range(0, size).parallel().forEach(id -> {
+            int length = Math.min(terms.length(id), PREFIX_LENGTH);
+            char[] prefix = new char[length];
+            for (int i = 0; i < length; i++) {
+                prefix[i] = terms.charAt(id, i);
+            }
+            int n = starts[id];
+            /* skip2 == skip1 deletes one character, and skip1 == -1 none */
+            for (int skip1 = -1; skip1 < length; skip1++) {
+                for (int skip2 = skip1; skip2 < (skip1 < 0 ? 0 : length); skip2++) {
+                    pairs[n++] = (truncate(hash(prefix, length, skip1, skip2)) << idBits) | id;
+                }
+            }
+        });
+        Arrays.parallelSort(pairs);
+
+        int numHashes = 0, numIds = 0;
+        for (int i = 0; i < pairs.length; i++) {
+            if (i > 0 && pairs[i] == pairs[i - 1]) continue;
+            numIds++;
+            if (i == 0 || (pairs[i] >>> idBits) != (pairs[i - 1] >>> idBits)) numHashes++;
+        }
+        hashes = new long[numHashes];
+        offsets = new int[numHashes + 1];
+        ids = new int[numIds];
+        int h = -1, n = 0;
+        for (int i = 0; i < pairs.length; i++) {
+            if (i > 0 && pairs[i] == pairs[i - 1]) continue;
+            if (i == 0 || (pairs[i] >>> idBits) != (pairs[i - 1] >>> idBits)) {
+                hashes[++h] = pairs[i] >>> idBits;
+                offsets[h] = n;
+            }
+            ids[n++] = (int) (pairs[i] & mask);
+        }
+        offsets[numHashes] = n;
+    }
+
+    /** Keeps the bits of a hash that fit next to an id in a non-negative long. */
+    private long truncate( long hash ) {
+        return hash & (-1L >>> (idBits + 1));
+    }
+
+    /** Number of ways to delete up to MAX_DELETES = 2 characters from a string of a given length. */
+    private static int numDeletes( int length ) {
+        return 1 + length + length * (length - 1) / 2;
+    }
+
+    /** FNV-1a hash of the first <code>length</code> characters, without those at <code>skip1</code> and <code>skip2</code> (-1 for none). */
+    private static long hash( char[] s, int length, int skip1, int skip2 ) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            if (i == skip1 || i == skip2) continue;
+            h = (h ^ s[i]) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     *  Returns the sorted ids of the terms sharing a delete with a term, a
+     *  superset of the terms within MAX_DELETES insertions and deletions of it.
+     */
+    public int[] candidates( String term ) {
+        int length = Math.min(term.length(), PREFIX_LENGTH);
+        char[] prefix = term.substring(0, length).toCharArray();
+        int[] result = new int[64];
+        int n = 0;
+        for (int skip1 = -1; skip1 < length; skip1++) {
+            for (int skip2 = skip1; skip2 < (skip1 < 0 ? 0 : length); skip2++) {
+                int i = Arrays.binarySearch(hashes, truncate(hash(prefix, length, skip1, skip2)));
+                if (i >= 0) {
+                    int count = offsets[i + 1] - offsets[i];
+                    if (n + count > result.length) result = Arrays.copyOf(result, Math.max(n + count, 2 * result.length));
+                    System.arraycopy(ids, offsets[i], result, n, count);
+                    n += count;
+                }
+            }
+        }
+        Arrays.sort(result, 0, n);
+        int distinct = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || result[i] != result[i - 1]) result[distinct++] = result[i];
+        }
+        return Arrays.copyOf(result, distinct);
+    }
+
+    /** Whether the index was built from the current terms of a k-gram index. */
+    public boolean isCurrent( KGramIndex kgIndex ) {
+        return kgIndex.terms == terms && terms.size() == size;
+    }
+
+    /** Approximate size in memory, in bytes. */
+    public long memoryBytes() {
+        return 8L * hashes.length + 4L * offsets.length + 4L * ids.length + 64;
+    }
+}
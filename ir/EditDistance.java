@@ -0,0 +1,112 @@
+package ir;
+
+import java.util.Arrays;
+
+/**
+ *  The edit distance of the spelling checker (insertions and deletions cost 1,
+ *  substitutions 2) between one query term and many candidates, computed only
+ *  up to a maximum distance.
+ *
+ *  With these costs a substitution is never cheaper than a deletion followed
+ *  by an insertion, so the distance is |a| + |b| - 2 LCS(a, b). For terms of
+ *  at most 64 characters the longest common subsequence is computed
+ *  bit-parallel (Hyyro's variant of the Allison-Dix algorithm), with a few
+ *  operations on one long per character of the candidate. Longer terms use a
+ *  dynamic program over one row, limited to the diagonals within the maximum
+ *  distance, which stops as soon as a row is over it. Nothing is allocated per
+ *  candidate.
+ */
+public class EditDistance {
+
+    final String term;
+    final int maxDistance;
+
+    /** Bit j of the mask of a character is set if term.charAt(j) is that character. */
+    private final long[] asciiMasks = new long[128];
+
+    /** Masks of the characters of the term outside ASCII, sorted by character. */
+    private final char[] otherChars;
+    private final long[] otherMasks;
+
+    /** Row of the dynamic program, for terms longer than 64 characters. */
+    private int[] row;
+
+
+    public EditDistance( String term, int maxDistance ) {
+        this.term = term;
+        this.maxDistance = maxDistance;
+        char[] others = new char[term.length()];
+        int numOthers = 0;
+        for (int j = 0; j < term.length(); j++) {
+            if (term.charAt(j) >= asciiMasks.length) others[numOthers++] = term.charAt(j);
+        }
+        Arrays.sort(others, 0, numOthers);
+        int distinct = 0;
+        for (int i = 0; i < numOthers; i++) {
+            if (i == 0 || others[i] != others[i - 1]) others[distinct++] = others[i];
+        }
+        otherChars = Arrays.copyOf(others, distinct);
+        otherMasks = new long[distinct];
+        for (int j = 0; j < Math.min(term.length(), 64); j++) {
+            char c = term.charAt(j);
+            if (c < asciiMasks.length) asciiMasks[c] |= 1L << j;
+            else otherMasks[Arrays.binarySearch(otherChars, c)] |= 1L << j;
+        }
+        if (term.length() > 64) {
+            row = new int[term.length() + 1];
+        }
+    }
+
+    private long mask( char c ) {
+        if (c < asciiMasks.length) return asciiMasks[c];
+        int i = Arrays.binarySearch(otherChars, c);
+        return i < 0 ? 0 : otherMasks[i];
+    }
+
+    /** The distance between the term and <code>s</code>, or maxDistance + 1 if it is larger. */
+    public int distance( CharSequence s ) {
+        int m = term.length(), n = s.length();
+        if (Math.abs(m - n) > maxDistance) return maxDistance + 1;
+        if (m > 64) return bandedDistance(s);
+        long bits = m == 64 ? -1L : (1L << m) - 1;
+        /* the zero bits of v mark the LCS of the term and the characters read */
+        long v = -1L;
+        for (int i = 0; i < n; i++) {
+            long u = v & mask(s.charAt(i));
+            v = (v + u) | (v - u);
+            /* even if every remaining character extended the LCS, the distance would be too large */
+            int lcs = Long.bitCount(~v & bits);
+            if (m + n - 2 * Math.min(m, lcs + n - 1 - i) > maxDistance) return maxDistance + 1;
+        }
+        int lcs = Long.bitCount(~v & bits);
+        return Math.min(m + n - 2 * lcs, maxDistance + 1);
+    }
+
+    /** The dynamic program over the cells within maxDistance of the diagonal. */
+    private int bandedDistance( CharSequence s ) {
+        int m = term.length(), n = s.length(), max = maxDistance, over = max + 1;
+        for (int j = 0; j <= m; j++) {
+            row[j] = Math.min(j, over);
+        }
+        for (int i = 1; i <= n; i++) {
+            int from = Math.max(1, i - max), to = Math.min(m, i + max);
+            /* row[j] holds the previous row from j on, and the current row before j */
+            int diagonal = row[from - 1];
+            int left = from == 1 ? Math.min(i, over) : over;
+            row[from - 1] = left;
+            int rowMin = left;
+            char c = s.charAt(i - 1);
+            for (int j = from; j <= to; j++) {
+                int up = row[j];
+                int d = term.charAt(j - 1) == c ? diagonal : Math.min(Math.min(up, left) + 1, diagonal + 2);
+                d = Math.min(d, over);
+                diagonal = up;
+                row[j] = d;
+                left = d;
+                rowMin = Math.min(rowMin, d);
+            }
+            if (rowMin > max) return over;
+        }
+        return row[m];
+    }
+}
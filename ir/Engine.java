@@ -1,6 +1,7 @@
 package ir;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.io.*;
 
@@ -42,11 +43,63 @@ public class Engine {
     String pic_file = "";
 
     /** The file containing the pageranks. */
-    String rank_file = "";
+    String rank_file = "../pagerank/davisRank.txt";
+
+    /** The files describing the link graph used by HITS ranking. */
+    String links_file = Searcher.LINKS_FNAME;
+    String titles_file = Searcher.TITLES_FNAME;
+
+    /** The binary cache of the link graph. */
+    static final String LINKGRAPH_FNAME = PersistentHashedIndex.INDEXDIR + "/linkgraph";
+
+    /** The binary file the pageranks are saved to, indexed by docID. */
+    static final String PAGERANK_FNAME = PersistentHashedIndex.INDEXDIR + "/pagerank";
+
+    /** The fingerprint of the index the saved pageranks are for (see RankStore.fingerprint). */
+    static final String PAGERANK_INDEX_FNAME = PersistentHashedIndex.INDEXDIR + "/pagerank_index";
+
+    /** The binary file with topic-sensitive pageranks, written by "java ir.PageRank ... -topics topics_file". */
+    static final String TOPICS_FNAME = PersistentHashedIndex.INDEXDIR + "/topics";
+
+    /** The binary file the k-gram index is saved to, for wildcard queries and spelling correction. */
+    static final String KGRAMS_FNAME = PersistentHashedIndex.INDEXDIR + "/kgrams";
 
     /** For persistent indexes, we might not need to do any indexing. */
     boolean is_indexing = true;
 
+    /** Assign docIDs in descending PageRank order when indexing. */
+    boolean pagerank_order = false;
+
+    /** Seconds between checks for refreshed pageranks of a persistent index (0 means never). */
+    int rank_poll = 0;
+
+    /** Maximum number of cached search results (0 means no result cache). */
+    int result_cache = 1000;
+
+    /** Build the k-gram index from the vocabulary once inversion is done, instead of token by token. */
+    boolean defer_kgrams = false;
+
+    /** Build a permuterm index for wildcard queries. */
+    boolean permuterm_index = false;
+
+    /** Build a deletion index for spelling correction. */
+    boolean deletion_index = false;
+
+    /** Maximum number of terms a wildcard expands to. */
+    int max_expansions = 1000;
+
+    /** Size of the intersection cache in megabytes (0 means no intersection cache). */
+    int pair_cache = 32;
+
+    /** Number of tf-idf candidates reranked by cascade ranking (0 means no cascade). */
+    int cascade_size = 0;
+
+    /** Links followed per candidate in each direction by cascade HITS (0 means all). */
+    int fan_out = 0;
+
+    /** Number of results kept by PageRank and combined ranking (0 means all). */
+    int top_k = 0;
+
 
     /* ----------------------------------------------- */
 
@@ -58,7 +111,15 @@ public class Engine {
     public Engine( String[] args ) {
         decodeArgs( args );
         indexer = new Indexer( index, kgIndex, patterns_file );
+        indexer.deferKGrams = defer_kgrams;
         searcher = new Searcher( index, kgIndex );
+        searcher.topK = top_k;
+        searcher.cascadeSize = cascade_size;
+        searcher.fanOut = fan_out;
+        searcher.maxExpansions = max_expansions;
+        searcher.resultCache = result_cache > 0 ? new ResultCache(result_cache, 64L << 20) : null;
+        searcher.intersectionCache = pair_cache > 0 ? new IntersectionCache((long) pair_cache << 20) : null;
+        searcher.loadLinkGraph(links_file, titles_file, LINKGRAPH_FNAME);
         speller = new SpellChecker(index, kgIndex);
         gui = new SearchGUI( this );
         gui.init();
@@ -69,10 +130,10 @@ public class Engine {
          *   corrupt the index).
          */
 
-        indexer.readPageRank("../pagerank/davisRank.txt");
-
         if (is_indexing) {
             synchronized ( indexLock ) {
+                indexer.readPageRank(rank_file);
+
                 gui.displayInfoText( "Indexing, please wait..." );
                 long startTime = System.currentTimeMillis();
 
@@ -83,15 +144,29 @@ public class Engine {
                     indexer.readEuclideanLengths("./euclidean_length.txt");
                 }
 
-                for ( int i=0; i<dirNames.size(); i++ ) {
-                    File dokDir = new File( dirNames.get( i ));
-                    indexer.processFiles(dokDir, is_indexing, writeL2);
+                if (pagerank_order) {
+                    ArrayList<File> dokDirs = new ArrayList<File>();
+                    for ( int i=0; i<dirNames.size(); i++ ) {
+                        dokDirs.add( new File( dirNames.get( i )));
+                    }
+                    indexer.processFilesByPageRank(dokDirs, writeL2);
+                    if (!writeL2) {
+                        /* the saved lengths are keyed by directory-order docIDs */
+                        HashMap<Integer, Double> l2Lengths = new HashMap<Integer, Double>(index.l2Lengths);
+                        for (int docID : index.originalDocIDs.keySet()) {
+                            index.l2Lengths.put(docID, l2Lengths.get(index.originalDocIDs.get(docID)));
+                        }
+                    }
+                } else {
+                    for ( int i=0; i<dirNames.size(); i++ ) {
+                        File dokDir = new File( dirNames.get( i ));
+                        indexer.processFiles(dokDir, is_indexing, writeL2);
+                    }
                 }
-
-                // System.out.println("ve: " + indexer.kgIndex.getPostings("ve").size());
-                // List<KGramPostingsEntry> pe = indexer.kgIndex.getPostings("th");
-                // pe = indexer.kgIndex.intersect(pe, indexer.kgIndex.getPostings("he"));
-                // System.out.println("th he: " + pe.size());
+                indexer.buildKGramIndex();
+                kgIndex.trim();
+                buildPermuterm();
+                buildDeletionIndex();
 
                 if (writeL2) {
                     saveL2Length();
@@ -99,10 +174,183 @@ public class Engine {
                 long elapsedTime = System.currentTimeMillis() - startTime;
                 gui.displayInfoText( String.format( "Indexing done in %.1f seconds.", elapsedTime/1000.0 ));
                 index.cleanup();
+                saveKGramIndex();
+                savePageRanks();
+                loadRankingPriors();
             }
         } else {
+            loadKGramIndex();
+            loadPageRanks();
+            loadRankingPriors();
             gui.displayInfoText( "Index is loaded from disk" );
         }
+        if (rank_poll > 0) {
+            if (index instanceof PersistentHashedIndex) {
+                watchPageRanks();
+            }
+            else {
+                System.err.println("Refreshed pageranks are only picked up for a persistent index, ignoring -rankpoll");
+            }
+        }
+    }
+
+    /**
+     *  Starts a background thread that reloads the saved pageranks whenever the
+     *  file changes, e.g. after "java ir.PageRank ... -delta delta_file -store".
+     *  The file is replaced atomically, so searches switch from the old scores
+     *  to the new ones without a restart. Scores saved for another index are
+     *  not used.
+     */
+    private void watchPageRanks() {
+        Thread watcher = new Thread(() -> {
+            File file = new File(PAGERANK_FNAME);
+            long lastModified = file.lastModified();
+            while (true) {
+                try {
+                    Thread.sleep(rank_poll * 1000L);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long modified = file.lastModified();
+                if (modified != 0 && modified != lastModified) {
+                    lastModified = modified;
+                    try {
+                        if (!RankStore.isFingerprintOf(PAGERANK_INDEX_FNAME, index.docNames)) {
+                            System.err.println("The pageranks in " + PAGERANK_FNAME + " were computed for another index, ignoring them");
+                            continue;
+                        }
+                        searcher.pageRanks = RankStore.read(PAGERANK_FNAME);
+                        if (searcher.resultCache != null) {
+                            searcher.resultCache.clear();
+                        }
+                        System.err.println("Reloaded pageranks from " + PAGERANK_FNAME);
+                    } catch (IOException e) {
+                        System.err.println("Could not reload pageranks: " + e.getMessage());
+                    }
+                }
+            }
+        }, "pagerank-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /** Saves the k-gram index next to a persistent index. */
+    private void saveKGramIndex() {
+        if (index instanceof PersistentHashedIndex) {
+            try {
+                kgIndex.write(KGRAMS_FNAME);
+            } catch (IOException e) {
+                System.err.println("Could not save the k-gram index: " + e.getMessage());
+            }
+        }
+    }
+
+    /** Maps the k-gram index saved with a persistent index. */
+    private void loadKGramIndex() {
+        try {
+            long startTime = System.currentTimeMillis();
+            kgIndex.load(KGRAMS_FNAME);
+            System.err.println(String.format("Mapped k-gram index with %d terms in %.1f seconds", kgIndex.size(), (System.currentTimeMillis() - startTime) / 1000.0));
+            buildPermuterm();
+            buildDeletionIndex();
+        } catch (IOException e) {
+            System.err.println("Could not read the k-gram index, wildcard queries and spelling correction will not work: " + e.getMessage());
+        }
+    }
+
+    /**
+     *  Builds the permuterm index for wildcard queries on a daemon thread, if
+     *  asked for with -permuterm. Until it is ready, wildcards are resolved with
+     *  the k-gram index alone.
+     */
+    private void buildPermuterm() {
+        if (!permuterm_index) return;
+        Thread builder = new Thread(() -> {
+            long startTime = System.currentTimeMillis();
+            try {
+                PermutermIndex permuterm = kgIndex.buildPermuterm();
+                System.err.println(String.format("Built permuterm index with %d rotations in %.1f seconds, about %d MB", permuterm.rotations.length, (System.currentTimeMillis() - startTime) / 1000.0, permuterm.memoryBytes() >> 20));
+            } catch (IllegalStateException e) {
+                System.err.println("Could not build the permuterm index, wildcards use the k-gram index alone: " + e.getMessage());
+            }
+        }, "permuterm-builder");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    /**
+     *  Builds the deletion index for spelling correction on a daemon thread, if
+     *  it was asked for. Until it is ready, candidates come from the k-gram index.
+     */
+    private void buildDeletionIndex() {
+        if (!deletion_index) return;
+        Thread builder = new Thread(() -> {
+            long startTime = System.currentTimeMillis();
+            DeletionIndex deletes = speller.buildDeletionIndex();
+            System.err.println(String.format("Built deletion index with %d deletes in %.1f seconds, about %d MB", deletes.hashes.length, (System.currentTimeMillis() - startTime) / 1000.0, deletes.memoryBytes() >> 20));
+        }, "deletion-index-builder");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    /**
+     *  Resolves the pageranks read from the rank file to docIDs once indexing is
+     *  done, and saves them next to a persistent index.
+     */
+    private void savePageRanks() {
+        searcher.pageRanks = RankStore.fromNames(index.docRanks, index);
+        if (index instanceof PersistentHashedIndex) {
+            try {
+                RankStore.writeFingerprint(PAGERANK_INDEX_FNAME, index.docNames);
+                searcher.pageRanks.write(PAGERANK_FNAME);
+            } catch (IOException e) {
+                System.err.println("Could not save pageranks: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     *  Loads the pageranks saved with a persistent index. Falls back to parsing
+     *  the rank file if they have not been saved yet, or were saved for another
+     *  index.
+     */
+    private void loadPageRanks() {
+        try {
+            if (!RankStore.isFingerprintOf(PAGERANK_INDEX_FNAME, index.docNames)) {
+                throw new IOException("the saved pageranks are for another index");
+            }
+            searcher.pageRanks = RankStore.read(PAGERANK_FNAME);
+        } catch (IOException e) {
+            indexer.readPageRank(rank_file);
+            savePageRanks();
+        }
+    }
+
+    /**
+     *  Loads the topic-sensitive pageranks precomputed with "java ir.PageRank ...
+     *  -topics topics_file", and the global hub and authority scores precomputed
+     *  with "java ir.HITSRanker links titles -precompute", if there are any.
+     */
+    private void loadRankingPriors() {
+        if (new File(TOPICS_FNAME).isFile()) {
+            try {
+                searcher.topicRanks = TopicRanks.read(TOPICS_FNAME);
+            } catch (IOException e) {
+                System.err.println("Could not read topic pageranks: " + e.getMessage());
+            }
+        }
+        if (new File(HITSRanker.HUBS_FNAME).isFile() && new File(HITSRanker.AUTHORITIES_FNAME).isFile()) {
+            try {
+                if (RankStore.isFingerprintOf(HITSRanker.PRIORS_INDEX_FNAME, index.docNames)) {
+                    searcher.setHitsPriors(RankStore.read(HITSRanker.HUBS_FNAME), RankStore.read(HITSRanker.AUTHORITIES_FNAME));
+                }
+                else {
+                    System.err.println("The HITS priors were computed for another index, run \"java ir.HITSRanker links_file titles_file -precompute\" again.");
+                }
+            } catch (IOException e) {
+                System.err.println("Could not read HITS priors: " + e.getMessage());
+            }
+        }
     }
 
     /**
@@ -127,7 +375,7 @@ public class Engine {
                 }
                 eucLength = Math.sqrt(eucLength);
                 // Append the text to the file
-                bufferedWriter.write(Double.toString(eucLength) + " " + docID);
+                bufferedWriter.write(Double.toString(eucLength) + " " + index.originalDocIDs.getOrDefault(docID, docID));
                 bufferedWriter.newLine();
                 eucLength = 0;
             }
@@ -170,9 +418,66 @@ public class Engine {
                 if ( i < args.length ) {
                     rank_file = args[i++];
                 }
+            } else if ( "-links".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    links_file = args[i++];
+                }
+            } else if ( "-titles".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    titles_file = args[i++];
+                }
             } else if ( "-ni".equals( args[i] )) {
                 i++;
                 is_indexing = false;
+            } else if ( "-prorder".equals( args[i] )) {
+                i++;
+                pagerank_order = true;
+            } else if ( "-rankpoll".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    rank_poll = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-resultcache".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    result_cache = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-maxexpand".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    max_expansions = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-kgbatch".equals( args[i] )) {
+                i++;
+                defer_kgrams = true;
+            } else if ( "-permuterm".equals( args[i] )) {
+                i++;
+                permuterm_index = true;
+            } else if ( "-deletes".equals( args[i] )) {
+                i++;
+                deletion_index = true;
+            } else if ( "-paircache".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    pair_cache = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-cascade".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    cascade_size = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-fanout".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    fan_out = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-topk".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    top_k = Integer.parseInt( args[i++] );
+                }
             } else {
                 System.err.println( "Unknown option: " + args[i] );
                 break;
@@ -0,0 +1,138 @@
+package ir;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *  A bounded LRU cache of HITS results, keyed by the root set of a query.
+ *
+ *  The root set is the sorted array of docIDs matching the query, and results
+ *  are only shared between queries expanded with the same fan-out. An entry keeps
+ *  the base set and its converged hub and authority scores as plain arrays, so
+ *  a repeated query (e.g. when paging through results) needs no iterations at
+ *  all. When a new root set differs only a little from a cached one, the cached
+ *  scores are used as the starting point of the power iteration.
+ */
+public class HITSCache {
+
+    /** Root sets overlapping a cached one by at least this Jaccard similarity are warm-started from it. */
+    static final double WARM_START_SIMILARITY = 0.8;
+
+    /** A cached HITS result. */
+    static class Entry {
+        /** Sorted root-set docIDs. */
+        final int[] roots;
+        /** Links followed per root in each direction when the base set was built, or 0 for all. */
+        final int fanOut;
+        /** Base-set nodes, as dense node IDs. */
+        final int[] nodes;
+        /** Converged hub and authority scores, parallel to nodes. */
+        final double[] hubs, authorities;
+        /** Iterations a cold start would take, as measured or inherited from a warm start. */
+        final int coldIterations;
+
+        Entry( int[] roots, int fanOut, int[] nodes, double[] hubs, double[] authorities, int coldIterations ) {
+            this.roots = roots;
+            this.fanOut = fanOut;
+            this.nodes = nodes;
+            this.hubs = hubs;
+            this.authorities = authorities;
+            this.coldIterations = coldIterations;
+        }
+    }
+
+    /** Maximum number of entries. */
+    private final int capacity;
+
+    /** Entries by root-set hash, in access order. */
+    private final LinkedHashMap<Long,Entry> entries;
+
+    /** Statistics. */
+    private long hits = 0, misses = 0, warmStarts = 0, iterationsSaved = 0;
+
+
+    public HITSCache( int capacity ) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<Long,Entry>(16, 0.75f, true) {
+            protected boolean removeEldestEntry( Map.Entry<Long,Entry> eldest ) {
+                return size() > HITSCache.this.capacity;
+            }
+        };
+    }
+
+    /** 64-bit hash of a sorted root set and fan-out. */
+    static long hash( int[] roots, int fanOut ) {
+        long h = 0xcbf29ce484222325L ^ fanOut;
+        for (int docID : roots) {
+            h ^= docID;
+            h *= 0x100000001b3L;
+        }
+        return h ^ roots.length;
+    }
+
+    /** Returns the cached result for exactly this root set and fan-out, or null. */
+    public synchronized Entry get( int[] roots, int fanOut ) {
+        Entry entry = entries.get(hash(roots, fanOut));
+        if (entry != null && entry.fanOut == fanOut && Arrays.equals(entry.roots, roots)) {
+            hits++;
+            iterationsSaved += entry.coldIterations;
+            return entry;
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     *  Returns the cached entry with the same fan-out whose root set is most similar
+     *  to <code>roots</code>, if the Jaccard similarity is at least
+     *  WARM_START_SIMILARITY, or null.
+     */
+    public synchronized Entry closest( int[] roots, int fanOut ) {
+        Entry best = null;
+        double bestSimilarity = WARM_START_SIMILARITY;
+        for (Entry entry : entries.values()) {
+            if (entry.fanOut != fanOut) continue;
+            double similarity = jaccard(roots, entry.roots);
+            if (similarity >= bestSimilarity) {
+                best = entry;
+                bestSimilarity = similarity;
+            }
+        }
+        return best;
+    }
+
+    /** Jaccard similarity of two sorted arrays without duplicates. */
+    static double jaccard( int[] a, int[] b ) {
+        /* the similarity cannot reach the threshold if the sizes differ too much */
+        if (Math.min(a.length, b.length) < WARM_START_SIMILARITY * Math.max(a.length, b.length)) return 0;
+        int common = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] == b[j]) { common++; i++; j++; }
+            else if (a[i] < b[j]) i++;
+            else j++;
+        }
+        int union = a.length + b.length - common;
+        return union == 0 ? 1 : (double) common / union;
+    }
+
+    /** Records a warm-started run that took <code>iterations</code> instead of <code>coldIterations</code>. */
+    public synchronized void recordWarmStart( int coldIterations, int iterations ) {
+        warmStarts++;
+        iterationsSaved += Math.max(0, coldIterations - iterations);
+    }
+
+    public synchronized void put( Entry entry ) {
+        entries.put(hash(entry.roots, entry.fanOut), entry);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized String stats() {
+        long lookups = hits + misses;
+        return String.format("HITS cache: %d entries, %d lookups, hit ratio %.2f, %d warm starts, %d iterations saved",
+            entries.size(), lookups, lookups == 0 ? 0.0 : (double) hits / lookups, warmStarts, iterationsSaved);
+    }
+}
@@ -1,8 +1,8 @@
 package ir;
 
 import java.util.*;
-
-import javax.xml.datatype.DatatypeConfigurationException;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
 
 import java.io.*;
 
@@ -20,40 +20,62 @@ public class HITSRanker {
      */
     final static double EPSILON = 0.001;
 
+    /**
+     *   Base sets with at least this many nodes are updated in parallel.
+     */
+    final static int PARALLEL_THRESHOLD = 20000;
+
+    /**
+     *   Number of query results kept in the cache.
+     */
+    final static int CACHE_SIZE = 64;
+
+    /**
+     *   Files with the global hub and authority scores, indexed by docID.
+     */
+    final static String HUBS_FNAME = PersistentHashedIndex.INDEXDIR + "/hubs";
+    final static String AUTHORITIES_FNAME = PersistentHashedIndex.INDEXDIR + "/authorities";
+
+    /**
+     *   File with the fingerprint of the index the hub and authority scores were
+     *   computed for (see RankStore.fingerprint).
+     */
+    final static String PRIORS_INDEX_FNAME = PersistentHashedIndex.INDEXDIR + "/hits_index";
+
     /**
      *   The inverted index
      */
     Index index;
 
     /**
-     *   Mapping from the titles to internal document ids used in the links file
+     *   The link graph, in CSR form with dense node IDs.
      */
-    HashMap<String,Integer> titleToId = new HashMap<String,Integer>();
+    LinkGraph graph;
 
     /**
-     *   Mapping from internal document ids used in the links file to titles
+     *   The nodes of the graph HITS was last run on, as dense node IDs
      */
-    HashMap<Integer, String> idToTitle = new HashMap<Integer, String>();
+    int[] baseNodes = new int[0];
 
     /**
-     *   Sparse vector containing hub scores
+     *   Hub scores of the nodes in baseNodes
      */
-    HashMap<Integer,Double> hubs = new HashMap<Integer, Double>();
+    double[] hubs = new double[0];
 
     /**
-     *   Sparse vector containing authority scores
+     *   Authority scores of the nodes in baseNodes
      */
-    HashMap<Integer,Double> authorities = new HashMap<Integer, Double>();
+    double[] authorities = new double[0];
 
     /**
-     *   A memory-efficient representation of graph links.
+     *   Number of iterations of the last HITS run
      */
-    HashMap <Integer, HashMap<Integer, Boolean>> link = new HashMap<Integer, HashMap<Integer, Boolean>>();
+    int lastIterations = 0;
 
     /**
-     *   Inverse link: from toNode to fromNode
+     *   Results of recent queries, keyed by root set
      */
-    HashMap <Integer, HashMap<Integer, Boolean>> inverseLink = new HashMap<Integer, HashMap<Integer, Boolean>>();
+    HITSCache cache = new HITSCache(CACHE_SIZE);
 
     
     /* --------------------------------------------- */
@@ -84,6 +106,17 @@ public class HITSRanker {
         readDocs( linksFilename, titlesFilename );
     }
 
+    /**
+     * Constructs the HITSRanker object on a graph that has already been loaded.
+     *
+     * @param      graph  The link graph
+     * @param      index  The inverted index
+     */
+    public HITSRanker( LinkGraph graph, Index index ) {
+        this.index = index;
+        this.graph = graph;
+    }
+
 
     /* --------------------------------------------- */
 
@@ -98,7 +131,7 @@ public class HITSRanker {
      */
     private String getFileName( String path ) {
         String result = "";
-        StringTokenizer tok = new StringTokenizer( path, "\\\\" );
+        StringTokenizer tok = new StringTokenizer( path, "\\/" );
         while ( tok.hasMoreTokens() ) {
             result = tok.nextToken();
         }
@@ -113,125 +146,137 @@ public class HITSRanker {
      * @param      titlesFilename  File containing the mapping between nodeIDs and pages titles
      */
     void readDocs( String linksFilename, String titlesFilename ) {
-        BufferedReader brLinks;
-		try {
-			brLinks = new BufferedReader(new FileReader(linksFilename));
-			String line = brLinks.readLine();
-
-			while (line != null) {
-                String[] splits = line.split(";");
-                int from = Integer.parseInt(splits[0]);
-                link.put(from, new HashMap<Integer, Boolean>());
-                if (splits.length > 1) {
-                    String[] tos = splits[1].split(",");
-                    for (String to : tos) {
-                        /* update link */
-                        link.get(from).put(Integer.parseInt(to), true);
-                        /* update inversLink */
-                        if (inverseLink.containsKey(Integer.parseInt(to))) {
-                            inverseLink.get(Integer.parseInt(to)).put(from, true);
-                        }
-                        else {
-                            inverseLink.put(Integer.parseInt(to), new HashMap<Integer, Boolean>());
-                        }
-                    }
-                }
-				line = brLinks.readLine();
-			}
-
-			brLinks.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-        BufferedReader brTitles;
         try {
-			brTitles = new BufferedReader(new FileReader(titlesFilename));
-			String line = brTitles.readLine();
-
-			while (line != null) {
-                int idx = line.indexOf( ";" );
-                int docId = Integer.parseInt(line.substring(0, idx));
-                String title = line.substring(idx + 1);
-                titleToId.put(title, docId);
-                idToTitle.put(docId, title);
-				line = brTitles.readLine();
-			}
-
-			brTitles.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+            graph = LinkGraph.read(linksFilename, titlesFilename);
+        } catch (IOException e) {
+            e.printStackTrace();
+            graph = LinkGraph.empty();
+        }
     }
 
     /**
-     * Perform HITS iterations until convergence
+     * Perform HITS iterations until convergence on the subgraph induced by
+     * <code>nodes</code>. The subgraph is remapped to local IDs 0..n-1 and
+     * stored in CSR form, forward for the hub update and reverse for the
+     * authority update, so both updates only read the previous vectors.
      *
-     * @param      titles  The titles of the documents in the base set
+     * @param nodes The dense node IDs of the documents in the base set, without duplicates
+     * @param start A cached result to start from, or null to start from all ones
      */
-    private void iterate(String[] titles) {
-        HashSet<Integer> internalIDs = new HashSet<>();
-        for (String title : titles) { 
-            internalIDs.add(titleToId.get(title));
+    private void iterate(int[] nodes, HITSCache.Entry start) {
+        int n = nodes.length;
+        int[] local = new int[graph.numNodes];
+        Arrays.fill(local, -1);
+        for (int i = 0; i < n; i++) {
+            local[nodes[i]] = i;
+        }
+        int[][] out = inducedCsr(nodes, local, graph.outOffsets, graph.outTargets);
+        int[][] in = inducedCsr(nodes, local, graph.inOffsets, graph.inSources);
+        double[] h = new double[n];
+        double[] a = new double[n];
+        if (start == null) {
+            Arrays.fill(h, 1.0);
+            Arrays.fill(a, 1.0);
+        }
+        else {
+            /* nodes new to the base set start from the mean cached score */
+            Arrays.fill(h, mean(start.hubs));
+            Arrays.fill(a, mean(start.authorities));
+            for (int j = 0; j < start.nodes.length; j++) {
+                int i = local[start.nodes[j]];
+                if (i >= 0) {
+                    h[i] = start.hubs[j];
+                    a[i] = start.authorities[j];
+                }
+            }
         }
-        iterate(internalIDs);
+        iterate(nodes, h, a, out[0], out[1], in[0], in[1]);
+    }
+
+    private static double mean(double[] v) {
+        double sum = 0;
+        for (double x : v) sum += x;
+        return v.length == 0 ? 1.0 : sum / v.length;
     }
 
     /**
-     * Perform HITS iterations until convergence
-     * @param internalIDs The internal IDs of the documents in the base set
+     * Extracts the rows of <code>nodes</code> from a CSR graph, keeping only
+     * the links within the node set and translating them to local IDs.
      */
-    private void iterate(HashSet<Integer> internalIDs) {
-        /* initialize hub score and authority score to 1 */
-        hubs = new HashMap<>();
-        authorities = new HashMap<>();
-        for (int id : internalIDs) {
-            hubs.put(id, 1.0);
-            authorities.put(id, 1.0);
+    private static int[][] inducedCsr(int[] nodes, int[] local, int[] offsets, int[] targets) {
+        int n = nodes.length;
+        int[] subOffsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            int count = 0;
+            for (int e = offsets[nodes[i]]; e < offsets[nodes[i] + 1]; e++) {
+                if (local[targets[e]] >= 0) count++;
+            }
+            subOffsets[i + 1] = subOffsets[i] + count;
+        }
+        int[] subTargets = new int[subOffsets[n]];
+        for (int i = 0, w = 0; i < n; i++) {
+            for (int e = offsets[nodes[i]]; e < offsets[nodes[i] + 1]; e++) {
+                if (local[targets[e]] >= 0) subTargets[w++] = local[targets[e]];
+            }
         }
+        return new int[][] { subOffsets, subTargets };
+    }
+
+    /**
+     * Perform HITS iterations until convergence, or for at most MAX_NUMBER_OF_STEPS
+     * iterations, on a graph given in forward and reverse CSR form, starting
+     * from the hub scores h and authority scores a.
+     */
+    private void iterate(int[] nodes, double[] h, double[] a, int[] outOffsets, int[] outTargets, int[] inOffsets, int[] inSources) {
+        int n = nodes.length;
+        double[] newH = new double[n];
+        double[] newA = new double[n];
+        boolean parallel = n >= PARALLEL_THRESHOLD;
+
         /* iterate */
+        int steps = 0;
         double error = Double.MAX_VALUE;
-        while (error > EPSILON) {
-            HashMap<Integer, Double> newHubs = new HashMap<>(hubs);
-            HashMap<Integer, Double> newAuthorities = new HashMap<>(authorities);
-            for (int node : newHubs.keySet()) { 
-                newHubs.put(node, 0.0);
-                newAuthorities.put(node, 0.0);
-            }
-            for (int from : hubs.keySet()) {
-                HashMap<Integer, Boolean> tos = link.get(from);
-                if (tos != null) {
-                    for (int to : tos.keySet()) {
-                        if (hubs.containsKey(to)) {
-                            newHubs.put(from, newHubs.get(from) + authorities.get(to));
-                            newAuthorities.put(to, newAuthorities.get(to) + hubs.get(from));
-                        }     
-                    }
+        while (error > EPSILON && steps < MAX_NUMBER_OF_STEPS) {
+            final double[] oldH = h, oldA = a, nextH = newH, nextA = newA;
+            IntStream range = IntStream.range(0, n);
+            (parallel ? range.parallel() : range).forEach(i -> {
+                double hub = 0;
+                for (int e = outOffsets[i], end = outOffsets[i + 1]; e < end; e++) {
+                    hub += oldA[outTargets[e]];
                 }
-            }
+                double authority = 0;
+                for (int e = inOffsets[i], end = inOffsets[i + 1]; e < end; e++) {
+                    authority += oldH[inSources[e]];
+                }
+                nextH[i] = hub;
+                nextA[i] = authority;
+            });
             /* normalize */
-            double hubsNormalizer = 0.0;
-            double authoritiesNormalizer = 0.0;
-            for (int node : newHubs.keySet()) {
-                hubsNormalizer += Math.pow(newHubs.get(node), 2);
-                authoritiesNormalizer += Math.pow(newAuthorities.get(node), 2);
-            }
-            hubsNormalizer = Math.sqrt(hubsNormalizer);
-            authoritiesNormalizer = Math.sqrt(authoritiesNormalizer);
-
+            double hubsNormalizer = Math.sqrt(sumOfSquares(newH, parallel));
+            double authoritiesNormalizer = Math.sqrt(sumOfSquares(newA, parallel));
             double temp = 0.0;
-            for (int node : newHubs.keySet()) {
-                double normalizedHub = newHubs.get(node) / hubsNormalizer;
-                double normalizedAuthorities = newAuthorities.get(node) / authoritiesNormalizer;
-                temp = Math.max(temp, Math.max(Math.abs(normalizedHub - hubs.get(node)), Math.abs(normalizedAuthorities - authorities.get(node))));
-                newHubs.put(node, normalizedHub);
-                newAuthorities.put(node, normalizedAuthorities);
+            for (int i = 0; i < n; i++) {
+                newH[i] /= hubsNormalizer;
+                newA[i] /= authoritiesNormalizer;
+                temp = Math.max(temp, Math.max(Math.abs(newH[i] - h[i]), Math.abs(newA[i] - a[i])));
             }
             error = temp;
             /* update */
-            hubs = new HashMap<>(newHubs);
-            authorities = new HashMap<>(newAuthorities);
+            newH = h;
+            newA = a;
+            h = nextH;
+            a = nextA;
+            steps++;
         }
+        baseNodes = nodes;
+        hubs = h;
+        authorities = a;
+        lastIterations = steps;
+    }
+
+    private static double sumOfSquares(double[] v, boolean parallel) {
+        DoubleStream stream = Arrays.stream(v);
+        return (parallel ? stream.parallel() : stream).map(x -> x * x).sum();
     }
 
 
@@ -244,30 +289,89 @@ public class HITSRanker {
      * @return     A list of postings ranked according to the hub and authority scores.
      */
     PostingsList rank(PostingsList post) {
+        return rank(post, 0);
+    }
+
+    /**
+     * Rank the documents in the subgraph induced by the documents present
+     * in the postings list `post`, expanded by at most `fanOut` out-links and
+     * `fanOut` in-links of every document.
+     *
+     * @param      post    The list of postings fulfilling a certain information need
+     * @param      fanOut  Links followed per document in each direction, or 0 for all
+     *
+     * @return     A list of postings ranked according to the hub and authority scores.
+     */
+    PostingsList rank(PostingsList post, int fanOut) {
+        int[] roots = new int[post.size()];
+        for (int i = 0; i < roots.length; i++) {
+            roots[i] = post.get(i).docID;
+        }
+        Arrays.sort(roots);
+        HITSCache.Entry cached = cache.get(roots, fanOut);
+        if (cached != null) {
+            baseNodes = cached.nodes;
+            hubs = cached.hubs;
+            authorities = cached.authorities;
+            lastIterations = 0;
+            return toPostingsList();
+        }
+
         /* generate induced base set from root set */
-        HashSet<Integer> baseSet = new HashSet<>();
+        boolean[] inBase = new boolean[graph.numNodes];
+        int[] base = new int[graph.numNodes];
+        int baseSize = 0;
         for (int i = 0; i < post.size(); i++) {
-            int node = titleToId.get(getFileName(index.docNames.get(post.get(i).docID)));
-            baseSet.add(node);
-            if (link.get(node) != null) {
-                for (int to : link.get(node).keySet()) {
-                    baseSet.add(to);
+            int node = graph.nodeOf(getFileName(index.docNames.get(post.get(i).docID)));
+            if (node < 0) continue;
+            if (!inBase[node]) {
+                inBase[node] = true;
+                base[baseSize++] = node;
+            }
+            int outEnd = graph.outOffsets[node + 1];
+            if (fanOut > 0) outEnd = Math.min(outEnd, graph.outOffsets[node] + fanOut);
+            for (int e = graph.outOffsets[node]; e < outEnd; e++) {
+                int to = graph.outTargets[e];
+                if (!inBase[to]) {
+                    inBase[to] = true;
+                    base[baseSize++] = to;
                 }
             }
-            if (inverseLink.get(node) != null) {
-                for (int from : inverseLink.get(node).keySet()) {
-                    baseSet.add(from);
+            int inEnd = graph.inOffsets[node + 1];
+            if (fanOut > 0) inEnd = Math.min(inEnd, graph.inOffsets[node] + fanOut);
+            for (int e = graph.inOffsets[node]; e < inEnd; e++) {
+                int from = graph.inSources[e];
+                if (!inBase[from]) {
+                    inBase[from] = true;
+                    base[baseSize++] = from;
                 }
             }
         } 
-        /* perform HITS on base set */
-        iterate(baseSet);
-        /* combine hub score and authority score */
+        /* perform HITS on base set, warm-started from a similar cached query if there is one */
+        HITSCache.Entry start = cache.closest(roots, fanOut);
+        iterate(Arrays.copyOf(base, baseSize), start);
+        int coldIterations = lastIterations;
+        if (start != null) {
+            coldIterations = start.coldIterations;
+            cache.recordWarmStart(coldIterations, lastIterations);
+        }
+        cache.put(new HITSCache.Entry(roots, fanOut, baseNodes, hubs, authorities, coldIterations));
+        return toPostingsList();
+    }
+
+    /**
+     * Turns the scores of the last HITS run into a ranked postings list. Nodes
+     * whose documents are not in the index are left out.
+     */
+    private PostingsList toPostingsList() {
         ArrayList<PostingsEntry> result = new ArrayList<>();
-        for (int node : hubs.keySet()) {
+        for (int i = 0; i < baseNodes.length; i++) {
+            String title = graph.titles[baseNodes[i]];
+            Integer docID = title == null ? null : index.docIdentifiers.get(getFileName(title));
+            if (docID == null) continue;
             /* choose from the maximum in hub and authority score */
-            double score = Math.max(hubs.get(node), authorities.get(node));
-            result.add(new PostingsEntry(index.docIdentifiers.get(getFileName(idToTitle.get(node))), score));
+            double score = Math.max(hubs[i], authorities[i]);
+            result.add(new PostingsEntry(docID, score));
         }
         /* rank */
         Collections.sort(result, new PostingsEntry.scoreComparator());
@@ -276,51 +380,36 @@ public class HITSRanker {
 
 
     /**
-     * Sort a hash map by values in the descending order
+     * Returns the positions of the scores sorted by descending value.
      *
-     * @param      map    A hash map to sorted
+     * @param      scores  The scores to be sorted
      *
-     * @return     A hash map sorted by values
+     * @return     The positions in <code>scores</code>, highest score first
      */
-    private HashMap<Integer,Double> sortHashMapByValue(HashMap<Integer,Double> map) {
-        if (map == null) {
-            return null;
-        } else {
-            List<Map.Entry<Integer,Double> > list = new ArrayList<Map.Entry<Integer,Double> >(map.entrySet());
-      
-            Collections.sort(list, new Comparator<Map.Entry<Integer,Double>>() {
-                public int compare(Map.Entry<Integer,Double> o1, Map.Entry<Integer,Double> o2) { 
-                    return (o2.getValue()).compareTo(o1.getValue()); 
-                } 
-            }); 
-              
-            HashMap<Integer,Double> res = new LinkedHashMap<Integer,Double>(); 
-            for (Map.Entry<Integer,Double> el : list) { 
-                res.put(el.getKey(), el.getValue()); 
-            }
-            return res;
+    private Integer[] sortByValue(double[] scores) {
+        Integer[] order = new Integer[scores.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
         }
-    } 
+        Arrays.sort(order, (i, j) -> Double.compare(scores[j], scores[i]));
+        return order;
+    }
 
 
     /**
-     * Write the first `k` entries of a hash map `map` to the file `fname`.
+     * Write the `k` highest scores to the file `fname`, with the node IDs of the links file.
      *
-     * @param      map        A hash map
+     * @param      scores     Scores of the nodes in baseNodes
      * @param      fname      The filename
      * @param      k          A number of entries to write
      */
-    void writeToFile(HashMap<Integer,Double> map, String fname, int k) {
+    void writeToFile(double[] scores, String fname, int k) {
         try {
             BufferedWriter writer = new BufferedWriter(new FileWriter(fname));
-            
-            if (map != null) {
-                int i = 0;
-                for (Map.Entry<Integer,Double> e : map.entrySet()) {
-                    i++;
-                    writer.write(e.getKey() + ": " + String.format("%.5g%n", e.getValue()));
-                    if (i >= k) break;
-                }
+            Integer[] order = sortByValue(scores);
+            for (int i = 0; i < order.length && i < k; i++) {
+                int node = baseNodes[order[i]];
+                writer.write(graph.nodeIds[node] + ": " + String.format(Locale.ROOT, "%.5g%n", scores[order[i]]));
             }
             writer.close();
         } catch (IOException e) {}
@@ -333,11 +422,81 @@ public class HITSRanker {
      *  authorities_top_30.txt with documents containing top 30 authority scores
      */
     void rank() {
-        iterate(titleToId.keySet().toArray(new String[0]));
-        HashMap<Integer,Double> sortedHubs = sortHashMapByValue(hubs);
-        HashMap<Integer,Double> sortedAuthorities = sortHashMapByValue(authorities);
-        writeToFile(sortedHubs, "hubs_top_30.txt", 30);
-        writeToFile(sortedAuthorities, "authorities_top_30.txt", 30);
+        rankAll();
+        writeToFile(hubs, "hubs_top_30.txt", 30);
+        writeToFile(authorities, "authorities_top_30.txt", 30);
+    }
+
+    /**
+     * Runs HITS on the whole link graph. The updates are done in parallel
+     * since the graph is larger than PARALLEL_THRESHOLD.
+     */
+    private void rankAll() {
+        int[] all = new int[graph.numNodes];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        long startTime = System.currentTimeMillis();
+        double[] h = new double[all.length];
+        double[] a = new double[all.length];
+        Arrays.fill(h, 1.0);
+        Arrays.fill(a, 1.0);
+        iterate(all, h, a, graph.outOffsets, graph.outTargets, graph.inOffsets, graph.inSources);
+        long elapsedTime = System.currentTimeMillis() - startTime;
+        System.err.println(String.format("HITS on %d nodes and %d links: %d iterations in %.3f seconds (%.2f ms per iteration)",
+            graph.numNodes, graph.numEdges(), lastIterations, elapsedTime / 1000.0, (double) elapsedTime / Math.max(lastIterations, 1)));
+    }
+
+    /**
+     * Computes global hub and authority scores of the indexed documents, to be
+     * used as static ranking priors.
+     *
+     * @param      docIDs   Mapping from document file names to docIDs
+     * @param      numDocs  Number of docIDs
+     *
+     * @return     The hub and authority scores, indexed by docID. Documents
+     *             that are not in the link graph get 0.
+     */
+    RankStore[] globalScores( Map<String,Integer> docIDs, int numDocs ) {
+        rankAll();
+        double[] docHubs = new double[numDocs];
+        double[] docAuthorities = new double[numDocs];
+        for (int node = 0; node < graph.numNodes; node++) {
+            String title = graph.titles[node];
+            Integer docID = title == null ? null : docIDs.get(getFileName(title));
+            if (docID == null || docID >= numDocs) continue;
+            docHubs[docID] = hubs[node];
+            docAuthorities[docID] = authorities[node];
+        }
+        return new RankStore[] { new RankStore(docHubs), new RankStore(docAuthorities) };
+    }
+
+    /**
+     * Computes the global hub and authority scores of the documents of the
+     * persistent index and saves them next to it, as HUBS_FNAME and
+     * AUTHORITIES_FNAME. The docIDs are read from the docInfo file, so this
+     * has to be redone when the index is rebuilt; the fingerprint of the index
+     * is saved as PRIORS_INDEX_FNAME so that outdated scores are not used.
+     */
+    void precompute() throws IOException {
+        HashMap<String,Integer> docIDs = new HashMap<String,Integer>();
+        HashMap<Integer,String> docNames = new HashMap<Integer,String>();
+        int numDocs = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(PersistentHashedIndex.INDEXDIR + "/" + PersistentHashedIndex.DOCINFO_FNAME))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] data = line.split(";");
+                int docID = Integer.parseInt(data[0]);
+                docIDs.put(getFileName(data[1]), docID);
+                docNames.put(docID, data[1]);
+                numDocs = Math.max(numDocs, docID + 1);
+            }
+        }
+        RankStore[] scores = globalScores(docIDs, numDocs);
+        scores[0].write(HUBS_FNAME);
+        scores[1].write(AUTHORITIES_FNAME);
+        RankStore.writeFingerprint(PRIORS_INDEX_FNAME, docNames);
+        System.err.println("Wrote hub and authority scores of " + numDocs + " documents to " + HUBS_FNAME + " and " + AUTHORITIES_FNAME);
     }
 
 
@@ -345,12 +504,23 @@ public class HITSRanker {
 
 
     public static void main( String[] args ) {
-        if ( args.length != 2 ) {
-            System.err.println( "Please give the names of the link and title files" );
+        if ( args.length != 2 && !(args.length == 3 && "-precompute".equals(args[2])) ) {
+            System.err.println( "Please give the names of the link and title files, optionally followed by -precompute" );
         }
         else {
+            long startTime = System.currentTimeMillis();
             HITSRanker hr = new HITSRanker( args[0], args[1], null );
-            hr.rank();
+            System.err.println(String.format("Read the link graph in %.3f seconds", (System.currentTimeMillis() - startTime) / 1000.0));
+            if (args.length == 3) {
+                try {
+                    hr.precompute();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            else {
+                hr.rank();
+            }
         }
     }
-} 
\ No newline at end of file
+}
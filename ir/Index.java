@@ -3,6 +3,7 @@ package ir;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *  Defines some common data structures and methods that all types of
@@ -10,9 +11,22 @@ import java.util.Iterator;
  */
 public interface Index {
 
+    /**
+     *  Generation of the index, incremented whenever documents are added. Caches
+     *  of search results compare it to the generation they were computed at.
+     */
+    public AtomicLong generation = new AtomicLong();
+
     /** Mapping from document identifiers to document names. */
     public HashMap<Integer, String> docNames = new HashMap<Integer, String>();
 
+    /**
+     *  Mapping from docIDs assigned in descending PageRank order to the docIDs
+     *  the documents get in directory order. Empty unless the index was built
+     *  in PageRank order.
+     */
+    public HashMap<Integer, Integer> originalDocIDs = new HashMap<Integer, Integer>();
+
     /** Mapping from document names to document identifiers. */
     public HashMap<String, Integer> docIdentifiers = new HashMap<String, Integer>();
 
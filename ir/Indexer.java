@@ -16,6 +16,15 @@ public class Indexer {
     /** K-gram index to be built up by this Indexer */
     KGramIndex kgIndex;
 
+    /**
+     *  Build the k-gram index after inversion from the vocabulary (see
+     *  buildKGramIndex) instead of inserting every token into it.
+     */
+    boolean deferKGrams = false;
+
+    /** Distinct tokens seen so far, when the k-gram index is built afterwards. */
+    private HashSet<String> vocabulary = new HashSet<String>();
+
     /** The next docID to be generated. */
     private int lastDocID = 0;
 
@@ -58,56 +67,112 @@ public class Indexer {
                         }
                     }
                 } else {
-                    // HashMap<String, Integer> wordCount = new HashMap<>();
-                    // First register the document and get a docID
-                    int docID = generateDocID();
-                    if ( docID%1000 == 0 ) System.err.println( "Indexed " + docID + " files" );
-                    try {
-                        Reader reader = new InputStreamReader( new FileInputStream(f), StandardCharsets.UTF_8 );
-                        Tokenizer tok = new Tokenizer( reader, true, false, true, patterns_file );
-                        int offset = 0;
-                        HashSet<String> uniqueTokens = new HashSet<>();
-                        while ( tok.hasMoreTokens() ) {
-                            String token = tok.nextToken();
-                            insertIntoIndex( docID, token, offset++ );
-                            /* save to wordCount, used for euclidean */
-                            if (writeL2) {
-                                if (index.tf.containsKey(docID)) {
-                                    if (index.tf.get(docID).containsKey(token)) {
-                                        index.tf.get(docID).put(token, index.tf.get(docID).get(token) + 1);
-                                    }
-                                    else {
-                                        index.tf.get(docID).put(token, 1);
-                                    }
-                                }
-                                else {
-                                    index.tf.put(docID, new HashMap<String, Integer>());
-                                    index.tf.get(docID).put(token, 1);
-                                }
-                                uniqueTokens.add(token);
-                            }
+                    indexFile( f, writeL2 );
+                }
+            }
+        }
+    }
+
+    /**
+     *  Tokenizes and indexes all files below the directories <code>roots</code>,
+     *  assigning docIDs in descending PageRank order. Every postings list is then
+     *  sorted by decreasing PageRank, which lets PageRank ranking stop after the
+     *  first k matching documents. The docID each file would have got in directory
+     *  order is stored in <code>index.originalDocIDs</code>.
+     *
+     *  The pageranks must have been read before this method is called.
+     */
+    public void processFilesByPageRank( List<File> roots, boolean writeL2 ) {
+        ArrayList<File> files = new ArrayList<>();
+        for (File root : roots) {
+            collectFiles(root, files);
+        }
+        Integer[] order = new Integer[files.size()];
+        double[] ranks = new double[files.size()];
+        for (int i = 0; i < files.size(); i++) {
+            order[i] = i;
+            Double rank = index.docRanks.get(files.get(i).getName());
+            ranks[i] = rank == null ? 0 : rank;
+        }
+        /* stable sort, so documents with equal rank stay in directory order */
+        Arrays.sort(order, (a, b) -> Double.compare(ranks[b], ranks[a]));
+        for (int originalDocID : order) {
+            int docID = indexFile(files.get(originalDocID), writeL2);
+            index.originalDocIDs.put(docID, originalDocID);
+        }
+    }
+
+    /** Collects the readable files below <code>f</code> in the order processFiles visits them. */
+    private void collectFiles( File f, List<File> files ) {
+        if ( f.canRead() ) {
+            if ( f.isDirectory() ) {
+                String[] fs = f.list();
+                if ( fs != null ) {
+                    for ( int i=0; i<fs.length; i++ ) {
+                        collectFiles( new File( f, fs[i] ), files );
+                    }
+                }
+            } else {
+                files.add(f);
+            }
+        }
+    }
+
+    /**
+     *  Tokenizes and indexes a single file.
+     *
+     *  @return The docID given to the file.
+     */
+    private int indexFile( File f, boolean writeL2 ) {
+        // HashMap<String, Integer> wordCount = new HashMap<>();
+        // First register the document and get a docID
+        int docID = generateDocID();
+        Index.generation.incrementAndGet();
+        if ( docID%1000 == 0 ) System.err.println( "Indexed " + docID + " files" );
+        try {
+            Reader reader = new InputStreamReader( new FileInputStream(f), StandardCharsets.UTF_8 );
+            Tokenizer tok = new Tokenizer( reader, true, false, true, patterns_file );
+            int offset = 0;
+            HashSet<String> uniqueTokens = new HashSet<>();
+            while ( tok.hasMoreTokens() ) {
+                String token = tok.nextToken();
+                insertIntoIndex( docID, token, offset++ );
+                /* save to wordCount, used for euclidean */
+                if (writeL2) {
+                    if (index.tf.containsKey(docID)) {
+                        if (index.tf.get(docID).containsKey(token)) {
+                            index.tf.get(docID).put(token, index.tf.get(docID).get(token) + 1);
                         }
-                        if (writeL2) {
-                            for (String uniqueToken : uniqueTokens) {
-                                if (index.df.containsKey(uniqueToken)) {
-                                    index.df.put(uniqueToken, index.df.get(uniqueToken) + 1);
-                                }
-                                else {
-                                    index.df.put(uniqueToken, 1);
-                                }
-                            }
+                        else {
+                            index.tf.get(docID).put(token, 1);
                         }
-                        index.docNames.put( docID, f.getPath() );
-                        index.docIdentifiers.put(getFileName(f.getPath()), docID);
-                        index.docLengths.put( docID, offset );
-                        reader.close();
                     }
-                    catch ( IOException e ) {
-                        System.err.println( "Warning: IOException during indexing." );
+                    else {
+                        index.tf.put(docID, new HashMap<String, Integer>());
+                        index.tf.get(docID).put(token, 1);
                     }
+                    uniqueTokens.add(token);
                 }
             }
+            if (writeL2) {
+                for (String uniqueToken : uniqueTokens) {
+                    if (index.df.containsKey(uniqueToken)) {
+                        index.df.put(uniqueToken, index.df.get(uniqueToken) + 1);
+                    }
+                    else {
+                        index.df.put(uniqueToken, 1);
+                    }
+                }
+            }
+            index.docNames.put( docID, f.getPath() );
+            index.docIdentifiers.put(getFileName(f.getPath()), docID);
+            index.docLengths.put( docID, offset );
+            reader.close();
         }
+        catch ( IOException e ) {
+            System.err.println( "Warning: IOException during indexing." );
+        }
+        return docID;
     }
 
     /** Read pageranks and the document names. Store them into docRanks. */
@@ -155,8 +220,21 @@ public class Indexer {
      */
     public void insertIntoIndex( int docID, String token, int offset ) {
         index.insert( token, docID, offset );
-        if (kgIndex != null)
-            kgIndex.insert(token);
+        if (kgIndex != null) {
+            if (deferKGrams)
+                vocabulary.add(token);
+            else
+                kgIndex.insert(token);
+        }
+    }
+
+    /** Builds the k-gram index from the vocabulary of the indexed files, if it was deferred. */
+    public void buildKGramIndex() {
+        if (kgIndex == null || !deferKGrams) return;
+        long startTime = System.currentTimeMillis();
+        kgIndex.build(vocabulary);
+        vocabulary = new HashSet<String>();
+        System.err.println(String.format("Built k-gram index of %d terms in %.1f seconds", kgIndex.size(), (System.currentTimeMillis() - startTime) / 1000.0));
     }
 
         /**
@@ -170,7 +248,7 @@ public class Indexer {
      */
     private String getFileName( String path ) {
         String result = "";
-        StringTokenizer tok = new StringTokenizer( path, "\\\\" );
+        StringTokenizer tok = new StringTokenizer( path, "\\/" );
         while ( tok.hasMoreTokens() ) {
             result = tok.nextToken();
         }
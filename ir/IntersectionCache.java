@@ -0,0 +1,198 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ *  Caches the intersections of term pairs, so that Boolean and phrase queries
+ *  sharing a pair of terms (e.g. "uc davis") do not intersect their postings
+ *  again.
+ *
+ *  A pair is only admitted once it has been seen MIN_FREQUENCY times and its
+ *  intersection reads at least MIN_COST postings. When the cache is over its
+ *  byte budget, the entries with the lowest value, i.e. frequency times cost
+ *  per byte, are evicted first. Entries computed before the index last changed
+ *  are dropped when they are looked up.
+ */
+public class IntersectionCache {
+
+    /** Number of times a pair must be seen before its intersection is cached. */
+    static final int MIN_FREQUENCY = 2;
+
+    /** Pairs whose postings lists together are shorter than this are cheap to intersect again. */
+    static final int MIN_COST = 1000;
+
+    /** Number of pairs whose frequency is tracked before old counts are aged. */
+    static final int MAX_TRACKED = 10000;
+
+    /** A cached intersection. */
+    private static class Entry {
+        final PostingsList postings;
+        /** Number of postings read to compute the intersection. */
+        final int cost;
+        final long bytes;
+        final long generation;
+        int frequency;
+
+        Entry( PostingsList postings, int cost, long bytes, long generation, int frequency ) {
+            this.postings = postings;
+            this.cost = cost;
+            this.bytes = bytes;
+            this.generation = generation;
+            this.frequency = frequency;
+        }
+
+        double value() {
+            return (double) frequency * cost / bytes;
+        }
+    }
+
+    private final HashMap<String,Entry> entries = new HashMap<String,Entry>();
+
+    /** How often each pair has been seen. */
+    private final HashMap<String,Integer> frequencies = new HashMap<String,Integer>();
+
+    /** Maximum estimated size of the cached postings, in bytes. */
+    private final long maxBytes;
+
+    private long bytes = 0;
+
+    /** Statistics. */
+    private long hits = 0, misses = 0, admitted = 0, evicted = 0, postingsSaved = 0;
+
+
+    public IntersectionCache( long maxBytes ) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** The key of a term pair. Intersections do not depend on the order of the terms, phrases do. */
+    static String key( QueryType queryType, String term1, String term2 ) {
+        if (queryType == QueryType.INTERSECTION_QUERY && term1.compareTo(term2) > 0) {
+            String t = term1;
+            term1 = term2;
+            term2 = t;
+        }
+        return (queryType == QueryType.PHRASE_QUERY ? "\"" : "&") + term1 + " " + term2;
+    }
+
+    /** Whether the intersection of a pair is cached and up to date. */
+    public synchronized boolean contains( String key ) {
+        Entry entry = entries.get(key);
+        return entry != null && entry.generation == Index.generation.get();
+    }
+
+    /** Returns the cached intersection of a pair, or null. Every call counts as a use of the pair. */
+    public synchronized PostingsList get( String key ) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.generation != Index.generation.get()) {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            frequencies.merge(key, 1, Integer::sum);
+            if (frequencies.size() > MAX_TRACKED) {
+                age();
+            }
+            return null;
+        }
+        hits++;
+        entry.frequency++;
+        postingsSaved += entry.cost;
+        return entry.postings;
+    }
+
+    /** Whether a pair that was just looked up and missed should be computed and cached. */
+    public synchronized boolean shouldAdmit( String key, int cost ) {
+        Integer frequency = frequencies.get(key);
+        return cost >= MIN_COST && frequency != null && frequency >= MIN_FREQUENCY;
+    }
+
+    /**
+     *  Caches the intersection of a pair, evicting the least valuable entries if
+     *  needed. Nothing is evicted unless the new entry is admitted, i.e. unless
+     *  enough bytes can be freed from entries worth no more than it.
+     */
+    public synchronized void put( String key, PostingsList postings, int cost ) {
+        if (postings == null) return;
+        long size = 100 + 2L * key.length() + estimateBytes(postings);
+        if (size > maxBytes) return;
+        Integer frequency = frequencies.get(key);
+        Entry entry = new Entry(postings, cost, size, Index.generation.get(), frequency == null ? 1 : frequency);
+        Entry old = entries.get(key);
+        long needed = bytes - (old == null ? 0 : old.bytes) + size - maxBytes;
+        ArrayList<String> victims = new ArrayList<String>();
+        if (needed > 0) {
+            PriorityQueue<Map.Entry<String,Entry>> cheapest = new PriorityQueue<Map.Entry<String,Entry>>(
+                entries.size(), Comparator.comparingDouble((Map.Entry<String,Entry> e) -> e.getValue().value()));
+            for (Map.Entry<String,Entry> e : entries.entrySet()) {
+                if (!e.getKey().equals(key)) {
+                    cheapest.add(e);
+                }
+            }
+            while (needed > 0 && !cheapest.isEmpty()) {
+                Map.Entry<String,Entry> victim = cheapest.poll();
+                /* do not push out entries that are worth more than the new one */
+                if (victim.getValue().value() > entry.value()) return;
+                victims.add(victim.getKey());
+                needed -= victim.getValue().bytes;
+            }
+        }
+        for (String victim : victims) {
+            remove(victim);
+            evicted++;
+        }
+        frequencies.remove(key);
+        remove(key);
+        entries.put(key, entry);
+        bytes += size;
+        admitted++;
+    }
+
+    /** Rough size of a postings list in memory. */
+    static long estimateBytes( PostingsList postings ) {
+        long size = 0;
+        for (int i = 0; i < postings.size(); i++) {
+            PostingsEntry pe = postings.get(i);
+            size += 40 + (pe.offset == null ? 0 : 16L * pe.offset.size());
+        }
+        return size;
+    }
+
+    private void remove( String key ) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            bytes -= entry.bytes;
+        }
+    }
+
+    /** Halves the tracked frequencies and forgets pairs that drop to zero. */
+    private void age() {
+        Iterator<Map.Entry<String,Integer>> it = frequencies.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String,Integer> e = it.next();
+            if (e.getValue() <= 1) {
+                it.remove();
+            }
+            else {
+                e.setValue(e.getValue() / 2);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        frequencies.clear();
+        bytes = 0;
+    }
+
+    public synchronized String stats() {
+        long lookups = hits + misses;
+        return String.format("Intersection cache: %d pairs, about %d kB, %d lookups, hit rate %.2f, %d admitted, %d evicted, %d postings not re-read",
+            entries.size(), bytes / 1024, lookups, lookups == 0 ? 0.0 : (double) hits / lookups, admitted, evicted, postingsSaved);
+    }
+}
@@ -1,8 +1,20 @@
 package ir;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import ir.Query.QueryTerm;
 
@@ -11,23 +23,45 @@ import java.nio.charset.StandardCharsets;
 
 public class KGramIndex {
 
-    /** Mapping from term ids to actual term strings */
-    HashMap<Integer,String> id2term = new HashMap<Integer,String>();
+    /** Mapping between term ids and term strings */
+    TermTable terms = new TermTable();
 
-    /** Mapping from term strings to term ids */
-    HashMap<String,Integer> term2id = new HashMap<String,Integer>();
+    /** Index from k-grams to the ids of the terms that contain the k-gram */
+    HashMap<String,KGramPostings> index = new HashMap<String,KGramPostings>();
 
-    /** Mapping from term ids to number of k-grams of this term */
-    HashMap<Integer, Integer> id2num = new HashMap<Integer, Integer>();
+    /** Number of symbols to form a K-gram */
+    int K = 3;
+
+    /** Maximum number of wildcard expansions kept in the cache */
+    static final int WILDCARD_CACHE_SIZE = 1000;
 
-    /** Index from k-grams to list of term ids that contain the k-gram */
-    HashMap<String,List<KGramPostingsEntry>> index = new HashMap<String,List<KGramPostingsEntry>>();
+    /** Matching term ids of recently expanded wildcards, in LRU order. Cleared when a new term is inserted. */
+    private final LinkedHashMap<String,int[]> wildcardCache = new LinkedHashMap<String,int[]>(16, 0.75f, true) {
+        protected boolean removeEldestEntry( Map.Entry<String,int[]> eldest ) {
+            return size() > WILDCARD_CACHE_SIZE;
+        }
+    };
 
-    /** The ID of the last processed term */
-    int lastTermID = -1;
+    /** Statistics of the wildcard cache. */
+    private long wildcardHits = 0, wildcardMisses = 0;
 
-    /** Number of symbols to form a K-gram */
-    int K = 3;
+    /** Rotations of all terms, for wildcards that match many terms, or null until built by buildPermuterm. */
+    private volatile PermutermIndex permuterm = null;
+
+    /** Number of wildcards resolved with the k-gram index and with the permuterm index. */
+    private long kgramResolved = 0, permutermResolved = 0;
+
+    /** Term ids in the sorted order of their terms, or null until needed by a fuzzy term. */
+    private volatile int[] sortedIds = null;
+
+    /** Largest edit distance of a fuzzy term, which is also the distance of term~ without a number. */
+    static final int MAX_FUZZY_DISTANCE = 2;
+
+    /** A fuzzy term: term~ or term~N. */
+    private static final Pattern FUZZY = Pattern.compile("([^*~]+)~([0-9]?)");
+
+    /** Number of regular expressions whose candidates were narrowed down by k-grams, and that were checked against every term. */
+    private long regexFiltered = 0, regexScanned = 0;
 
     public KGramIndex(int k) {
         K = k;
@@ -37,11 +71,6 @@ public class KGramIndex {
         }
     }
 
-    /** Generate the ID for an unknown term */
-    private int generateTermID() {
-        return ++lastTermID;
-    }
-
     public int getK() {
         return K;
     }
@@ -50,86 +79,151 @@ public class KGramIndex {
     /**
      *  Get intersection of two postings lists
      */
-    public List<KGramPostingsEntry> intersect(List<KGramPostingsEntry> p1, List<KGramPostingsEntry> p2) {
-        // 
-        // YOUR CODE HERE
-        //
-        List<KGramPostingsEntry> pResult = new ArrayList<>();
+    public int[] intersect(KGramPostings p1, KGramPostings p2) {
         if (p1 == null || p2 == null) {
-            return pResult;
+            return new int[0];
         }
-
-        int i1 = 0, i2 = 0;
-        while (i1 < p1.size() && i2 < p2.size()) {
-            if (p1.get(i1).tokenID < p2.get(i2).tokenID) {
-                i1++;
-            }
-            else if (p1.get(i1).tokenID > p2.get(i2).tokenID) {
-                i2++;
-            }
-            else {
-                pResult.add(new KGramPostingsEntry(p1.get(i1)));
-                i1++;
-                i2++;
-            }
-        }
-        return pResult;
+        int[] result = new int[Math.min(p1.size(), p2.size())];
+        int n = KGramPostings.intersect(new KGramPostings[] { p1, p2 }, result);
+        return Arrays.copyOf(result, n);
     }
 
 
     /** Inserts all k-grams from a token into the index. */
     public void insert( String token ) {
-        //
-        // YOUR CODE HERE
-        //
-        int id;
-        if (!term2id.containsKey(token)) {
-            id = generateTermID();
-            term2id.put(token, id);
-            id2term.put(id, token);
+        if (terms.get(token) >= 0) return;
+        int id = terms.add(token);
+        synchronized (wildcardCache) {
+            wildcardCache.clear();
+            permuterm = null;
+            sortedIds = null;
         }
-        else return;
 
         String symbolizedToken = "^" + token + "$";
-
-        id2num.put(id, symbolizedToken.length() - K + 1);
+        terms.setKgramCount(id, distinctKgrams(symbolizedToken));
 
         if (symbolizedToken.length() < K) {
-            if (index.containsKey(token)) {
-                index.get(token).add(new KGramPostingsEntry(id));
-            }
-            else {
-                ArrayList<KGramPostingsEntry> newEntry = new ArrayList<>();
-                newEntry.add(new KGramPostingsEntry(id));
-                index.put(token, newEntry);
-            }
+            index.computeIfAbsent(token, kgram -> new KGramPostings()).add(id);
             return;
         }
-        
+
         for (int i = 0; i < symbolizedToken.length() - K + 1; i++) {
             String kGram = symbolizedToken.substring(i, i + K);
-            if (index.containsKey(kGram)) {
-                if (index.get(kGram).get(index.get(kGram).size() - 1).tokenID != id) {
-                    index.get(kGram).add(new KGramPostingsEntry(id));
+            /* ids only grow, so a k-gram repeated in the token is added once */
+            index.computeIfAbsent(kGram, kgram -> new KGramPostings()).add(id);
+        }
+    }
+
+    /**
+     *  Replaces the contents of the index with the k-grams of a vocabulary. The
+     *  terms get ids in sorted order. The id range is split into one contiguous
+     *  chunk per thread, each thread collects the postings of its chunk, and the
+     *  partial lists of every k-gram are then concatenated in chunk order.
+     */
+    public void build(Collection<String> vocabulary) {
+        String[] words = vocabulary.toArray(new String[0]);
+        Arrays.parallelSort(words);
+        int numTerms = 0;
+        for (int i = 0; i < words.length; i++) {
+            if (i == 0 || !words[i].equals(words[i - 1])) words[numTerms++] = words[i];
+        }
+        String[] sorted = Arrays.copyOf(words, numTerms);
+        TermTable newTerms = new TermTable();
+        for (String term : sorted) {
+            newTerms.add(term);
+        }
+        newTerms.trim();
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        int chunk = Math.max(1, (sorted.length + threads - 1) / threads);
+        int numChunks = (sorted.length + chunk - 1) / chunk;
+        List<HashMap<String,KGramPostings>> partials = IntStream.range(0, numChunks).parallel().mapToObj(c -> {
+            HashMap<String,KGramPostings> partial = new HashMap<String,KGramPostings>();
+            for (int id = c * chunk, end = Math.min(sorted.length, id + chunk); id < end; id++) {
+                String symbolizedToken = "^" + sorted[id] + "$";
+                newTerms.setKgramCount(id, distinctKgrams(symbolizedToken));
+                if (symbolizedToken.length() < K) {
+                    partial.computeIfAbsent(sorted[id], kgram -> new KGramPostings()).add(id);
+                    continue;
+                }
+                for (int i = 0; i < symbolizedToken.length() - K + 1; i++) {
+                    partial.computeIfAbsent(symbolizedToken.substring(i, i + K), kgram -> new KGramPostings()).add(id);
                 }
             }
-            else {
-                ArrayList<KGramPostingsEntry> newEntry = new ArrayList<>();
-                newEntry.add(new KGramPostingsEntry(id));
-                index.put(kGram, newEntry);
+            return partial;
+        }).collect(Collectors.toList());
+
+        HashSet<String> kgrams = new HashSet<String>();
+        for (HashMap<String,KGramPostings> partial : partials) {
+            kgrams.addAll(partial.keySet());
+        }
+        String[] allKgrams = kgrams.toArray(new String[0]);
+        KGramPostings[] merged = new KGramPostings[allKgrams.length];
+        IntStream.range(0, allKgrams.length).parallel().forEach(i -> {
+            KGramPostings postings = new KGramPostings();
+            KGramPostings.Cursor cursor = new KGramPostings.Cursor(null);
+            for (HashMap<String,KGramPostings> partial : partials) {
+                for (int id = cursor.reset(partial.get(allKgrams[i])).id(); id != KGramPostings.Cursor.END; id = cursor.next()) {
+                    postings.add(id);
+                }
+            }
+            postings.trim();
+            merged[i] = postings;
+        });
+        HashMap<String,KGramPostings> newIndex = new HashMap<String,KGramPostings>(2 * allKgrams.length);
+        for (int i = 0; i < allKgrams.length; i++) {
+            newIndex.put(allKgrams[i], merged[i]);
+        }
+        synchronized (wildcardCache) {
+            terms = newTerms;
+            index = newIndex;
+            wildcardCache.clear();
+            permuterm = null;
+            sortedIds = null;
+        }
+    }
+
+    /**
+     *  Number of distinct k-grams of a token with its start and end symbols, i.e.
+     *  the number of postings lists it is in. A token shorter than K is in one.
+     */
+    private int distinctKgrams( String symbolizedToken ) {
+        if (symbolizedToken.length() < K) return 1;
+        int count = 0;
+        for (int i = 0; i < symbolizedToken.length() - K + 1; i++) {
+            int j = 0;
+            while (j < i && !symbolizedToken.regionMatches(j, symbolizedToken, i, K)) {
+                j++;
             }
+            if (j == i) count++;
         }
+        return count;
+    }
+
+    /** Releases the unused capacity of the postings lists and the term table once indexing is done. */
+    public void trim() {
+        for (KGramPostings postings : index.values()) {
+            postings.trim();
+        }
+        terms.trim();
     }
 
     public List<ArrayList<QueryTerm>> parseWildcard(ArrayList<QueryTerm> oriQueryterm, Query q) {
         ArrayList<ArrayList<QueryTerm>> possibleCandidates = new ArrayList<>();
         for (int i = 0; i < oriQueryterm.size(); i++) {
             possibleCandidates.add(new ArrayList<>());
-            if (isWildcard(oriQueryterm.get(i).term)) {
-                // pray for result not being null :(
-                List<KGramPostingsEntry> result = removeFalsePositive(postingsFromKgrams(kgramsFromWildcard(oriQueryterm.get(i).term)), oriQueryterm.get(i).term);
-                for (KGramPostingsEntry entry : result) {
-                    possibleCandidates.get(i).add(q.new QueryTerm(id2term.get(entry.tokenID), 1.0));
+            String term = oriQueryterm.get(i).term;
+            if (isFuzzy(term)) {
+                /* closer terms weigh more in ranked retrieval */
+                LevenshteinAutomaton automaton = fuzzyAutomaton(term);
+                for (int id : expandFuzzy(term)) {
+                    String expansion = terms.get(id);
+                    possibleCandidates.get(i).add(q.new QueryTerm(expansion, 1.0 / (1 + automaton.distance(expansion))));
+                }
+            }
+            else if (isRegex(term) || isWildcard(term)) {
+                for (int id : isRegex(term) ? expandRegex(term) : expandWildcard(term)) {
+                    possibleCandidates.get(i).add(q.new QueryTerm(terms.get(id), 1.0));
                 }
             }
             else {
@@ -140,31 +234,6 @@ public class KGramIndex {
         return possibleCandidates;
     }
 
-    public List<ArrayList<QueryTerm>> enumerateCandidates(List<ArrayList<QueryTerm>> sets, Query q) {
-        if (sets.size() == 1) {
-            List<ArrayList<QueryTerm>> result = new ArrayList<ArrayList<QueryTerm>>();
-            for (int i = 0; i < sets.get(0).size(); i++) {
-                result.add(new ArrayList<QueryTerm>());
-                result.get(i).add(q.new QueryTerm(sets.get(0).get(i).term, 1.0));
-            }
-            return result;
-        } 
-        else {
-            ArrayList<ArrayList<QueryTerm>> result = new ArrayList<>();
-            ArrayList<QueryTerm> firstSet = sets.get(0);
-            List<ArrayList<QueryTerm>> remainingSets = sets.subList(1, sets.size());
-            List<ArrayList<QueryTerm>> suffixes = enumerateCandidates(remainingSets, q);
-            for (QueryTerm element : firstSet) {
-                for (ArrayList<QueryTerm> suffix : suffixes) {
-                    ArrayList<QueryTerm> temp = new ArrayList<>(suffix);
-                    temp.add(0, element);
-                    result.add(temp);
-                }
-            }
-            return result;
-        }
-    }
-
     public List<String> kgramsFromWildcard(String wildcard) {
         List<String> kgramsList = new ArrayList<>();
 
@@ -179,46 +248,441 @@ public class KGramIndex {
         return kgramsList;
     }
 
-    public List<KGramPostingsEntry> postingsFromKgrams(List<String> kgrams) {
-        List<KGramPostingsEntry> result = null;
-        for (int i = 0; i < kgrams.size(); i++) {
-            if (i == 0) {
-                result = getPostings(kgrams.get(i));
+    /** Returns the ids of the terms containing all the k-grams, or null if there are no k-grams. */
+    public int[] postingsFromKgrams(List<String> kgrams) {
+        if (kgrams.isEmpty()) {
+            return null;
+        }
+        KGramPostings[] lists = new KGramPostings[kgrams.size()];
+        int shortest = Integer.MAX_VALUE;
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = getPostings(kgrams.get(i));
+            if (lists[i] == null) return new int[0];
+            shortest = Math.min(shortest, lists[i].size());
+        }
+        int[] result = new int[shortest];
+        int n = KGramPostings.intersect(lists, result);
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    /** Returns the ids among <code>ids</code> of the terms that match the wildcard. */
+    public int[] removeFalsePositive(int[] ids, String wildcard) {
+        if (ids == null) {
+            return new int[0];
+        }
+        return matching(ids, wildcardPattern(wildcard));
+    }
+
+    /** Returns the ids among <code>ids</code> of the terms that match a pattern. */
+    private int[] matching(int[] ids, Pattern pattern) {
+        Matcher matcher = pattern.matcher("");
+        int[] result = new int[ids.length];
+        int n = 0;
+        for (int id : ids) {
+            if (matcher.reset(terms.get(id)).matches()) {
+                result[n++] = id;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Compiles a wildcard into a regular expression, where only '*' is special. */
+    static Pattern wildcardPattern(String wildcard) {
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        for (int end = wildcard.indexOf('*'); end >= 0; end = wildcard.indexOf('*', start)) {
+            if (end > start) {
+                regex.append(Pattern.quote(wildcard.substring(start, end)));
+            }
+            regex.append(".*");
+            start = end + 1;
+        }
+        if (start < wildcard.length()) {
+            regex.append(Pattern.quote(wildcard.substring(start)));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     *  Returns the ids of the terms matching a wildcard, in increasing order.
+     *  Expansions are cached until the next new term is inserted.
+     */
+    public int[] expandWildcard(String wildcard) {
+        int[] cached = cachedExpansion(wildcard);
+        if (cached != null) {
+            return cached;
+        }
+        int numTerms = terms.size();
+        PermutermIndex rotations = permuterm;
+        int[] ids = null;
+        if (rotations != null) {
+            int[] range = rotations.range(PermutermIndex.key(wildcard));
+            /* the permuterm range holds every match; the k-gram intersection reads at least the shortest k-gram list */
+            int kgramCost = Integer.MAX_VALUE;
+            for (String kgram : kgramsFromWildcard(wildcard)) {
+                KGramPostings postings = getPostings(kgram);
+                kgramCost = Math.min(kgramCost, postings == null ? 0 : postings.size());
+            }
+            if (range[1] - range[0] <= kgramCost) {
+                ids = rotations.ids(range);
+                if (wildcard.indexOf('*') != wildcard.lastIndexOf('*')) {
+                    ids = removeFalsePositive(ids, wildcard);
+                }
+            }
+        }
+        synchronized (wildcardCache) {
+            if (ids == null) kgramResolved++;
+            else permutermResolved++;
+        }
+        if (ids == null) {
+            ids = expandWithKGrams(wildcard);
+        }
+        cacheExpansion(wildcard, ids, numTerms);
+        return ids;
+    }
+
+    /** Returns the cached expansion of a wildcard or regular expression, or null. */
+    private int[] cachedExpansion(String pattern) {
+        synchronized (wildcardCache) {
+            int[] cached = wildcardCache.get(pattern);
+            if (cached != null) {
+                wildcardHits++;
             }
             else {
-                result = intersect(result, getPostings(kgrams.get(i)));
+                wildcardMisses++;
+            }
+            return cached;
+        }
+    }
+
+    /** Caches an expansion computed when the index had <code>numTerms</code> terms. */
+    private void cacheExpansion(String pattern, int[] ids, int numTerms) {
+        synchronized (wildcardCache) {
+            /* do not cache an expansion that may have missed a term inserted meanwhile */
+            if (numTerms == terms.size()) {
+                wildcardCache.put(pattern, ids);
             }
         }
-        return result;
     }
 
-    public List<KGramPostingsEntry> removeFalsePositive(List<KGramPostingsEntry> intersectResult, String wildcard) {
-        List<KGramPostingsEntry> result = new ArrayList<>();
-        for (KGramPostingsEntry entry : intersectResult) {
-            if (Pattern.matches(wildcard.replace("*", ".*"), id2term.get(entry.tokenID))) {
-                result.add(new KGramPostingsEntry(entry));
+    /** Resolves a wildcard by intersecting the postings of its k-grams and checking the candidates. */
+    int[] expandWithKGrams(String wildcard) {
+        List<String> kgrams = kgramsFromWildcard(wildcard);
+        if (kgrams.isEmpty()) {
+            /* no k-gram to narrow down the candidates (e.g. "*a*" with K = 2), so check every term */
+            return removeFalsePositive(allIds(), wildcard);
+        }
+        return removeFalsePositive(postingsFromKgrams(kgrams), wildcard);
+    }
+
+    /**
+     *  Returns the ids of the terms matching a regular expression written as
+     *  /regex/, in increasing order. The candidates are the terms containing
+     *  the k-grams of the literals required by one of its alternatives, and
+     *  they are checked against the compiled expression. Expansions are cached
+     *  together with the wildcards.
+     */
+    public int[] expandRegex(String token) {
+        int[] cached = cachedExpansion(token);
+        if (cached != null) {
+            return cached;
+        }
+        int numTerms = terms.size();
+        String regex = token.substring(1, token.length() - 1);
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(regex);
+        } catch (PatternSyntaxException e) {
+            System.err.println("Invalid regular expression " + token + ": " + e.getDescription());
+            return new int[0];
+        }
+        int[] candidates = candidatesFromRegex(regex);
+        int[] ids = matching(candidates == null ? allIds() : candidates, pattern);
+        synchronized (wildcardCache) {
+            if (candidates == null) regexScanned++;
+            else regexFiltered++;
+        }
+        cacheExpansion(token, ids, numTerms);
+        return ids;
+    }
+
+    /**
+     *  Returns the sorted ids of the terms that contain the k-grams of all the
+     *  required literals of some alternative of a regular expression, or null
+     *  if an alternative has no such k-grams and every term must be checked.
+     */
+    int[] candidatesFromRegex(String regex) {
+        List<List<String>> alternatives = RegexLiterals.requiredLiterals(regex);
+        if (alternatives == null) {
+            return null;
+        }
+        int[][] matches = new int[alternatives.size()][];
+        int total = 0;
+        for (int a = 0; a < matches.length; a++) {
+            List<String> kgrams = new ArrayList<String>();
+            for (String literal : alternatives.get(a)) {
+                for (int i = 0; i < literal.length() - K + 1; i++) {
+                    kgrams.add(literal.substring(i, i + K));
+                }
+            }
+            matches[a] = postingsFromKgrams(kgrams);
+            if (matches[a] == null) {
+                return null;
+            }
+            total += matches[a].length;
+        }
+        if (matches.length == 1) {
+            return matches[0];
+        }
+        int[] ids = new int[total];
+        int n = 0;
+        for (int[] match : matches) {
+            System.arraycopy(match, 0, ids, n, match.length);
+            n += match.length;
+        }
+        Arrays.sort(ids);
+        n = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (i == 0 || ids[i] != ids[i - 1]) ids[n++] = ids[i];
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    /** Ids of all terms. */
+    private int[] allIds() {
+        int[] ids = new int[terms.size()];
+        for (int id = 0; id < ids.length; id++) {
+            ids[id] = id;
+        }
+        return ids;
+    }
+
+    /**
+     *  Returns the ids of the terms within the edit distance of a fuzzy term
+     *  written as term~N, in increasing order. The Levenshtein automaton of
+     *  the term is run over the terms in sorted order, skipping every prefix
+     *  that cannot lead to a match. Expansions are cached together with the
+     *  wildcards.
+     */
+    public int[] expandFuzzy(String token) {
+        int[] cached = cachedExpansion(token);
+        if (cached != null) {
+            return cached;
+        }
+        int numTerms = terms.size();
+        TermTable current = terms;
+        int[] ids = fuzzyAutomaton(token).matches(current, sortedIds(current));
+        cacheExpansion(token, ids, numTerms);
+        return ids;
+    }
+
+    /** The automaton of a fuzzy term. A missing distance means the largest one. */
+    LevenshteinAutomaton fuzzyAutomaton(String token) {
+        Matcher matcher = FUZZY.matcher(token);
+        matcher.matches();
+        int distance = matcher.group(2).isEmpty() ? MAX_FUZZY_DISTANCE : Integer.parseInt(matcher.group(2));
+        return new LevenshteinAutomaton(matcher.group(1), Math.min(distance, MAX_FUZZY_DISTANCE));
+    }
+
+    /**
+     *  Term ids of a table in the sorted order of their terms. Terms get ids in
+     *  sorted order when the index is built from a vocabulary, and are only
+     *  sorted here if they were inserted one by one.
+     */
+    private int[] sortedIds(TermTable current) {
+        int[] ids = sortedIds;
+        int size = current.size();
+        if (ids != null && ids.length == size) {
+            return ids;
+        }
+        boolean sorted = true;
+        for (int id = 1; id < size && sorted; id++) {
+            sorted = current.compare(id - 1, id) < 0;
+        }
+        if (sorted) {
+            ids = allIds();
+        }
+        else {
+            ids = IntStream.range(0, size).boxed().sorted(current::compare).mapToInt(Integer::intValue).toArray();
+        }
+        synchronized (wildcardCache) {
+            if (terms == current && current.size() == size) {
+                sortedIds = ids;
             }
         }
-        return result;
+        return ids;
+    }
+
+    /**
+     *  Builds the permuterm index of the current terms, which wildcards are then
+     *  resolved by whenever it is cheaper than the k-gram index. It is dropped
+     *  when a new term is inserted.
+     */
+    public PermutermIndex buildPermuterm() {
+        TermTable current = terms;
+        PermutermIndex rotations = new PermutermIndex(current);
+        synchronized (wildcardCache) {
+            /* a term inserted meanwhile would be missing from it */
+            if (terms == current && current.size() == rotations.size) {
+                permuterm = rotations;
+                wildcardCache.clear();
+            }
+        }
+        return rotations;
+    }
+
+    public String wildcardCacheStats() {
+        synchronized (wildcardCache) {
+            long lookups = wildcardHits + wildcardMisses;
+            return String.format("Wildcard cache: %d patterns, %d lookups, hit rate %.2f, %d resolved by k-grams, %d by permuterm, %d regexes filtered by k-grams, %d scanned",
+                wildcardCache.size(), lookups, lookups == 0 ? 0.0 : (double) wildcardHits / lookups, kgramResolved, permutermResolved, regexFiltered, regexScanned);
+        }
+    }
+
+    /* --------------------------------------------- */
+
+    /** Identifies a k-gram index file. */
+    private static final int MAGIC = 0x4b475232; /* "KGR2" */
+
+    /**
+     *  Writes the index to a binary file:
+     *      magic, K, the term table (see TermTable.write), number of k-grams,
+     *      then for each k-gram: its length and chars, number of ids, last id,
+     *      number of bytes, skip ids[blocks], skip offsets[blocks], delta bytes
+     *  The file is written to a temporary name first and then moved in place.
+     */
+    public void write(String filename) throws IOException {
+        File file = new File(filename);
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        File temp = new File(filename + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(K);
+            terms.write(out);
+            out.writeInt(index.size());
+            for (Map.Entry<String,KGramPostings> e : index.entrySet()) {
+                KGramPostings postings = e.getValue();
+                out.writeInt(e.getKey().length());
+                out.writeChars(e.getKey());
+                out.writeInt(postings.size);
+                out.writeInt(postings.last);
+                out.writeInt(postings.length);
+                for (int i = 0; i < postings.blocks(); i++) {
+                    out.writeInt(postings.skipIds.get(i));
+                }
+                for (int i = 0; i < postings.blocks(); i++) {
+                    out.writeInt(postings.skipOffsets.get(i));
+                }
+                for (int i = 0; i < postings.length; i++) {
+                    out.writeByte(postings.bytes.get(i));
+                }
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     *  Replaces the contents of this index with a file written by <code>write</code>.
+     *  The term table is copied to memory, while the postings lists stay views of
+     *  the mapped file.
+     */
+    public void load(String filename) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("not a k-gram index file");
+        }
+        int k = buffer.getInt();
+        TermTable newTerms = TermTable.read(buffer);
+        int numKgrams = buffer.getInt();
+        HashMap<String,KGramPostings> newIndex = new HashMap<String,KGramPostings>(2 * numKgrams);
+        char[] kgram = new char[16];
+        for (int i = 0; i < numKgrams; i++) {
+            int length = buffer.getInt();
+            if (length > kgram.length) kgram = new char[length];
+            for (int j = 0; j < length; j++) {
+                kgram[j] = buffer.getChar();
+            }
+            int size = buffer.getInt(), last = buffer.getInt(), numBytes = buffer.getInt();
+            int blocks = (size + KGramPostings.SKIP - 1) / KGramPostings.SKIP;
+            IntBuffer skipIds = slice(buffer, 4 * blocks).asIntBuffer();
+            IntBuffer skipOffsets = slice(buffer, 4 * blocks).asIntBuffer();
+            ByteBuffer bytes = slice(buffer, numBytes);
+            newIndex.put(new String(kgram, 0, length), new KGramPostings(bytes, skipIds, skipOffsets, size, last));
+        }
+        synchronized (wildcardCache) {
+            K = k;
+            terms = newTerms;
+            index = newIndex;
+            wildcardCache.clear();
+            permuterm = null;
+            sortedIds = null;
+        }
+    }
+
+    /** Returns a view of the next <code>length</code> bytes of the buffer and skips past them. */
+    private static ByteBuffer slice(ByteBuffer buffer, int length) {
+        ByteBuffer view = buffer.slice();
+        view.limit(length);
+        buffer.position(buffer.position() + length);
+        return view;
     }
 
     public boolean isWildcard(String token) {
-        return token.contains("*");
+        return !isRegex(token) && token.contains("*");
+    }
+
+    /** Whether a query term is a fuzzy term, written as term~ or term~N. */
+    public boolean isFuzzy(String token) {
+        return !isRegex(token) && FUZZY.matcher(token).matches();
+    }
+
+    /** Whether a query term is expanded into several terms: a wildcard, a regular expression or a fuzzy term. */
+    public boolean isPattern(String token) {
+        return isWildcard(token) || isRegex(token) || isFuzzy(token);
+    }
+
+    /** Whether a query term is a regular expression, written as /regex/. */
+    public boolean isRegex(String token) {
+        return token.length() > 2 && token.startsWith("/") && token.endsWith("/");
     }
 
     /** Get postings for the given k-gram */
-    public List<KGramPostingsEntry> getPostings(String kgram) {
+    public KGramPostings getPostings(String kgram) {
         return index.get(kgram);
     }
 
-    /** Get id of a term */
-    public Integer getIDByTerm(String term) {
-        return term2id.get(term);
+    /** Get id of a term, or -1 if it is unknown */
+    public int getIDByTerm(String term) {
+        return terms.get(term);
     }
 
     /** Get a term by the given id */
-    public String getTermByID(Integer id) {
-        return id2term.get(id);
+    public String getTermByID(int id) {
+        return terms.get(id);
+    }
+
+    /** Number of distinct k-grams of a term, including those with the start and end symbols */
+    public int numKgrams(int id) {
+        return terms.kgramCount(id);
+    }
+
+    /** Number of terms in the index */
+    public int size() {
+        return terms.size();
+    }
+
+    /** Approximate size of the index in memory, in bytes. */
+    public long memoryBytes() {
+        long bytes = terms.memoryBytes();
+        for (Map.Entry<String,KGramPostings> e : index.entrySet()) {
+            bytes += 48 + 2L * e.getKey().length() + e.getValue().memoryBytes();
+        }
+        return bytes;
     }
 
     private static HashMap<String,String> decodeArgs( String[] args ) {
@@ -268,30 +732,24 @@ public class KGramIndex {
         }
 
         String[] kgrams = args.get("kgram").split(" ");
-        List<KGramPostingsEntry> postings = null;
         for (String kgram : kgrams) {
             if (kgram.length() != k) {
                 System.err.println("Cannot search k-gram index: " + kgram.length() + "-gram provided instead of " + k + "-gram");
                 System.exit(1);
             }
-
-            if (postings == null) {
-                postings = kgIndex.getPostings(kgram);
-            } else {
-                postings = kgIndex.intersect(postings, kgIndex.getPostings(kgram));
-            }
         }
+        int[] postings = kgIndex.postingsFromKgrams(Arrays.asList(kgrams));
         if (postings == null) {
             System.err.println("Found 0 posting(s)");
         } else {
-            int resNum = postings.size();
+            int resNum = postings.length;
             System.err.println("Found " + resNum + " posting(s)");
             if (resNum > 10) {
                 System.err.println("The first 10 of them are:");
                 resNum = 10;
             }
             for (int i = 0; i < resNum; i++) {
-                System.err.println(kgIndex.getTermByID(postings.get(i).tokenID));
+                System.err.println(kgIndex.getTermByID(postings[i]));
             }
         }
     }
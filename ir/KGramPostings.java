@@ -0,0 +1,241 @@
+package ir;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ *  The sorted term ids of one k-gram, stored as variable-length byte deltas.
+ *
+ *  Every SKIP-th id is kept in a skip table together with the offset of the
+ *  following delta, so a cursor can gallop over the skip table and only
+ *  decode the block that may hold its target.
+ *
+ *  Lists built in memory are backed by arrays. Lists read from a k-gram index
+ *  file are views of the mapped file, and are copied to arrays if ids are
+ *  added to them.
+ */
+public class KGramPostings {
+
+    /** Number of ids per block of the skip table. */
+    static final int SKIP = 64;
+
+    /** Deltas between consecutive ids, 7 bits per byte, except for the first id of each block. */
+    ByteBuffer bytes = ByteBuffer.wrap(new byte[4]);
+    int length = 0;
+
+    /** First id of each block, and the offset in bytes of the delta after it. */
+    IntBuffer skipIds = IntBuffer.wrap(new int[1]);
+    IntBuffer skipOffsets = IntBuffer.wrap(new int[1]);
+
+    int size = 0;
+    int last = -1;
+
+
+    public KGramPostings() {
+    }
+
+    /** A list stored in buffers, e.g. views of a mapped file. */
+    KGramPostings( ByteBuffer bytes, IntBuffer skipIds, IntBuffer skipOffsets, int size, int last ) {
+        this.bytes = bytes;
+        this.length = bytes.limit();
+        this.skipIds = skipIds;
+        this.skipOffsets = skipOffsets;
+        this.size = size;
+        this.last = last;
+    }
+
+    /** Appends an id, which must be larger than all ids added before. */
+    public void add( int id ) {
+        if (id <= last) return;
+        if (!bytes.hasArray()) {
+            /* a mapped list: copy it so that it can grow */
+            resize(length, skipIds.limit());
+        }
+        if (size % SKIP == 0) {
+            int block = size / SKIP;
+            if (block == skipIds.capacity()) {
+                resize(bytes.capacity(), Math.max(1, block * 2));
+            }
+            skipIds.put(block, id);
+            skipOffsets.put(block, length);
+        }
+        else {
+            if (length + 5 > bytes.capacity()) {
+                resize(Math.max(length + 5, bytes.capacity() * 3 / 2), skipIds.capacity());
+            }
+            byte[] array = bytes.array();
+            int delta = id - last;
+            while (delta >= 0x80) {
+                array[length++] = (byte) (delta | 0x80);
+                delta >>>= 7;
+            }
+            array[length++] = (byte) delta;
+        }
+        last = id;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int blocks() {
+        return (size + SKIP - 1) / SKIP;
+    }
+
+    /** Copies the list to arrays of the given capacities. */
+    private void resize( int byteCapacity, int blockCapacity ) {
+        byte[] newBytes = new byte[byteCapacity];
+        bytes.get(0, newBytes, 0, length);
+        int[] newSkipIds = new int[blockCapacity], newSkipOffsets = new int[blockCapacity];
+        skipIds.get(0, newSkipIds, 0, blocks());
+        skipOffsets.get(0, newSkipOffsets, 0, blocks());
+        bytes = ByteBuffer.wrap(newBytes);
+        skipIds = IntBuffer.wrap(newSkipIds);
+        skipOffsets = IntBuffer.wrap(newSkipOffsets);
+    }
+
+    /** Releases the unused capacity once no more ids are added. */
+    public void trim() {
+        if (bytes.hasArray()) {
+            resize(length, blocks());
+        }
+    }
+
+    /** Approximate size on the heap, in bytes. Mapped lists only count their views. */
+    public long memoryBytes() {
+        return bytes.hasArray() ? 48 + bytes.capacity() + 8L * skipIds.capacity() + 96 : 48 + 96;
+    }
+
+    /** Decodes all ids. */
+    public int[] toArray() {
+        int[] ids = new int[size];
+        Cursor cursor = new Cursor(this);
+        for (int i = 0; i < size; i++, cursor.next()) {
+            ids[i] = cursor.id;
+        }
+        return ids;
+    }
+
+
+    /** A position in a postings list. Its id is END once the list is exhausted. */
+    public static final class Cursor {
+        public static final int END = Integer.MAX_VALUE;
+
+        private KGramPostings postings;
+        private int index, offset;
+        int id;
+
+        public Cursor( KGramPostings postings ) {
+            reset(postings);
+        }
+
+        /** Moves the cursor to the first id of a list, which may be null. */
+        public Cursor reset( KGramPostings postings ) {
+            this.postings = postings;
+            if (postings == null || postings.size == 0) {
+                id = END;
+            }
+            else {
+                jump(0);
+            }
+            return this;
+        }
+
+        public int id() {
+            return id;
+        }
+
+        private void jump( int block ) {
+            index = block * SKIP;
+            id = postings.skipIds.get(block);
+            offset = postings.skipOffsets.get(block);
+        }
+
+        /** Moves to the next id and returns it. */
+        public int next() {
+            if (id == END) return END;
+            index++;
+            if (index == postings.size) {
+                id = END;
+            }
+            else if (index % SKIP == 0) {
+                jump(index / SKIP);
+            }
+            else {
+                ByteBuffer bytes = postings.bytes;
+                int delta = 0, shift = 0, b;
+                do {
+                    b = bytes.get(offset++);
+                    delta |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                id += delta;
+            }
+            return id;
+        }
+
+        /** Moves to the first id that is at least <code>target</code> and returns it. */
+        public int advance( int target ) {
+            if (id >= target) return id;
+            IntBuffer skipIds = postings.skipIds;
+            int blocks = postings.blocks();
+            int block = index / SKIP;
+            if (block + 1 < blocks && skipIds.get(block + 1) <= target) {
+                /* gallop to a block starting after the target, then binary search for the last block starting before it */
+                int lo = block + 1, step = 1;
+                while (lo + step < blocks && skipIds.get(lo + step) <= target) {
+                    lo += step;
+                    step <<= 1;
+                }
+                int hi = Math.min(lo + step, blocks) - 1;
+                while (lo < hi) {
+                    int mid = (lo + hi + 1) >>> 1;
+                    if (skipIds.get(mid) <= target) lo = mid;
+                    else hi = mid - 1;
+                }
+                jump(lo);
+            }
+            while (id < target) {
+                next();
+            }
+            return id;
+        }
+    }
+
+
+    /**
+     *  Intersects postings lists into <code>out</code>, which must have room for
+     *  the shortest list, and returns the number of ids written. The lists are
+     *  reordered by increasing size.
+     */
+    public static int intersect( KGramPostings[] lists, int[] out ) {
+        if (lists.length == 0) return 0;
+        for (KGramPostings list : lists) {
+            if (list == null) return 0;
+        }
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+        Cursor[] cursors = new Cursor[lists.length];
+        for (int i = 0; i < lists.length; i++) {
+            cursors[i] = new Cursor(lists[i]);
+        }
+        int n = 0;
+        int candidate = cursors[0].id;
+        while (candidate != Cursor.END) {
+            int i = 1;
+            for (; i < cursors.length; i++) {
+                int id = cursors[i].advance(candidate);
+                if (id != candidate) {
+                    candidate = cursors[0].advance(id);
+                    break;
+                }
+            }
+            if (i == cursors.length) {
+                out[n++] = candidate;
+                candidate = cursors[0].next();
+            }
+        }
+        return n;
+    }
+}
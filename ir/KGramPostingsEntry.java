@@ -1,18 +0,0 @@
-package ir;
-
-
-public class KGramPostingsEntry {
-    int tokenID;
-
-    public KGramPostingsEntry(int tokenID) {
-        this.tokenID = tokenID;
-    }
-
-    public KGramPostingsEntry(KGramPostingsEntry other) {
-        this.tokenID = other.tokenID;
-    }
-
-    public String toString() {
-        return tokenID + "";
-    }
-}
@@ -0,0 +1,130 @@
+package ir;
+
+import java.util.Arrays;
+
+/**
+ *  Accepts the strings within a maximum Levenshtein distance (insertions,
+ *  deletions and substitutions all cost 1) of a term.
+ *
+ *  A state is one row of the edit distance table: the distance from the
+ *  input read so far to every prefix of the term. The automaton is run over
+ *  the terms in sorted order, so that consecutive terms share the states of
+ *  their common prefix, and a prefix whose state can no longer reach an
+ *  accepting state rules out every term starting with it.
+ */
+public class LevenshteinAutomaton {
+
+    final String term;
+    final int maxDistance;
+
+    /** States of the current input, one per character read. */
+    private int[][] rows;
+
+
+    public LevenshteinAutomaton( String term, int maxDistance ) {
+        this.term = term;
+        this.maxDistance = maxDistance;
+        rows = new int[16][];
+        rows[0] = new int[term.length() + 1];
+        for (int j = 0; j <= term.length(); j++) {
+            rows[0][j] = j;
+        }
+    }
+
+    /** Computes the state after reading character <code>c</code> at <code>depth</code>, and returns its smallest distance. */
+    private int step( int depth, char c ) {
+        if (depth + 1 == rows.length) {
+            rows = Arrays.copyOf(rows, rows.length * 2);
+        }
+        if (rows[depth + 1] == null) {
+            rows[depth + 1] = new int[term.length() + 1];
+        }
+        int[] prev = rows[depth], row = rows[depth + 1];
+        row[0] = depth + 1;
+        int min = row[0];
+        for (int j = 1; j <= term.length(); j++) {
+            int d = Math.min(prev[j] + 1, row[j - 1] + 1);
+            d = Math.min(d, prev[j - 1] + (term.charAt(j - 1) == c ? 0 : 1));
+            row[j] = d;
+            min = Math.min(min, d);
+        }
+        return min;
+    }
+
+    /** The distance between the term and a string, or maxDistance + 1 if it is larger. */
+    public int distance( CharSequence s ) {
+        for (int i = 0; i < s.length(); i++) {
+            if (step(i, s.charAt(i)) > maxDistance) return maxDistance + 1;
+        }
+        return Math.min(rows[s.length()][term.length()], maxDistance + 1);
+    }
+
+    /**
+     *  Returns the ids of the terms within the maximum distance, in increasing
+     *  order. <code>order</code> lists the ids of the table in the sorted order
+     *  of their terms.
+     */
+    public int[] matches( TermTable terms, int[] order ) {
+        int[] result = new int[16];
+        int n = 0;
+        /* number of characters of the previous term whose states are in rows */
+        int valid = 0, prev = -1;
+        for (int p = 0; p < order.length; ) {
+            int id = order[p], length = terms.length(id);
+            int depth = prev < 0 ? 0 : Math.min(valid, commonPrefix(terms, prev, id));
+            boolean dead = false;
+            while (depth < length) {
+                int min = step(depth, terms.charAt(id, depth));
+                depth++;
+                if (min > maxDistance) {
+                    dead = true;
+                    break;
+                }
+            }
+            valid = depth;
+            prev = id;
+            if (dead) {
+                /* no term with this prefix can match */
+                p = skipPrefix(terms, order, p, depth);
+                continue;
+            }
+            if (rows[length][term.length()] <= maxDistance) {
+                if (n == result.length) result = Arrays.copyOf(result, n * 2);
+                result[n++] = id;
+            }
+            p++;
+        }
+        result = Arrays.copyOf(result, n);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static int commonPrefix( TermTable terms, int a, int b ) {
+        int length = Math.min(terms.length(a), terms.length(b)), i = 0;
+        while (i < length && terms.charAt(a, i) == terms.charAt(b, i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /** The first position after <code>p</code> whose term does not start with the first <code>length</code> characters of the term at <code>p</code>. */
+    private static int skipPrefix( TermTable terms, int[] order, int p, int length ) {
+        int id = order[p], lo = p + 1, step = 1, hi = lo;
+        while (hi < order.length && hasPrefix(terms, order[hi], id, length)) {
+            lo = hi + 1;
+            hi += step;
+            step <<= 1;
+        }
+        hi = Math.min(hi, order.length);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (hasPrefix(terms, order[mid], id, length)) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private static boolean hasPrefix( TermTable terms, int id, int prefixId, int length ) {
+        return terms.length(id) >= length && commonPrefix(terms, id, prefixId) >= length;
+    }
+}
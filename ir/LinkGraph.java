@@ -0,0 +1,573 @@
+package ir;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ *  A link graph in compressed sparse row (CSR) form.
+ *
+ *  The node IDs of the links and titles files are remapped to a dense range
+ *  0..numNodes-1. The out-links of node i are
+ *  <code>outTargets[outOffsets[i] .. outOffsets[i+1]-1]</code>, and its in-links
+ *  are stored the same way in <code>inOffsets</code> and <code>inSources</code>.
+ *  Duplicate links are removed and every row is sorted.
+ *
+ *  Parsing the text files is slow for large graphs, so the first load writes
+ *  the graph to a binary cache file (see <code>write</code>), and later loads
+ *  memory-map that file and copy its arrays out with bulk reads, so that the
+ *  rankers index plain int arrays whichever way the graph was loaded.
+ */
+public class LinkGraph {
+
+    /** Number of nodes. */
+    int numNodes;
+
+    /** The node ID used in the links and titles files, for every dense node. */
+    int[] nodeIds;
+
+    /** Dense node of every file node ID, or -1. */
+    int[] denseIds;
+
+    /** Forward CSR: row offsets and link targets. */
+    int[] outOffsets, outTargets;
+
+    /** Reverse CSR: row offsets and link sources. */
+    int[] inOffsets, inSources;
+
+    /** Title of every dense node, or null if the titles file has none. */
+    String[] titles;
+
+    /** Mapping from titles to dense nodes. */
+    HashMap<String,Integer> titleToNode = new HashMap<String,Integer>();
+
+
+    /* --------------------------------------------- */
+
+    /** Number of links. */
+    public int numEdges() {
+        return outTargets.length;
+    }
+
+    /** Returns the dense node with the given title, or -1. */
+    public int nodeOf( String title ) {
+        Integer node = titleToNode.get(title);
+        return node == null ? -1 : node;
+    }
+
+    public int outDegree( int node ) {
+        return outOffsets[node + 1] - outOffsets[node];
+    }
+
+    public int inDegree( int node ) {
+        return inOffsets[node + 1] - inOffsets[node];
+    }
+
+    /** An empty graph, used when the link files cannot be read. */
+    static LinkGraph empty() {
+        LinkGraph graph = new LinkGraph();
+        graph.nodeIds = new int[0];
+        graph.denseIds = new int[0];
+        graph.outOffsets = graph.inOffsets = new int[1];
+        graph.outTargets = graph.inSources = new int[0];
+        graph.titles = new String[0];
+        return graph;
+    }
+
+
+    /* --------------------------------------------- */
+
+    /** A growable array of ints. */
+    static class IntList {
+        int[] data = new int[16];
+        int size = 0;
+
+        void add( int value ) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+
+    /** Assigns dense IDs to file node IDs as they are first seen. */
+    private static class DenseMapping {
+        int[] denseIds = new int[1024];
+        IntList nodeIds = new IntList();
+
+        DenseMapping() {
+            Arrays.fill(denseIds, -1);
+        }
+
+        int map( int nodeId ) {
+            if (nodeId >= denseIds.length) {
+                int oldLength = denseIds.length;
+                denseIds = Arrays.copyOf(denseIds, Math.max(nodeId + 1, oldLength * 2));
+                Arrays.fill(denseIds, oldLength, denseIds.length, -1);
+            }
+            if (denseIds[nodeId] == -1) {
+                denseIds[nodeId] = nodeIds.size;
+                nodeIds.add(nodeId);
+            }
+            return denseIds[nodeId];
+        }
+    }
+
+    /**
+     *  Reads a graph from a links file and a titles file.
+     *
+     *  Each line in the links file has the format
+     *      nodeID;outNodeID1,outNodeID2,...,outNodeIDK
+     *  and each line in the titles file has the format
+     *      nodeID;pageTitle
+     */
+    public static LinkGraph read( String linksFilename, String titlesFilename ) throws IOException {
+        long startTime = System.currentTimeMillis();
+        DenseMapping mapping = new DenseMapping();
+        IntList from = new IntList();
+        IntList to = new IntList();
+
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(linksFilename), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                int sep = line.indexOf(';');
+                if (sep < 0) continue;
+                int source = mapping.map(parseInt(line, 0, sep));
+                int start = sep + 1;
+                while (start < line.length()) {
+                    int end = line.indexOf(',', start);
+                    if (end < 0) end = line.length();
+                    if (end > start) {
+                        from.add(source);
+                        to.add(mapping.map(parseInt(line, start, end)));
+                    }
+                    start = end + 1;
+                }
+            }
+        }
+
+        String[] titleOf = null;
+        if (titlesFilename != null) {
+            IntList titleNodes = new IntList();
+            ArrayList<String> titleList = new ArrayList<String>();
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(titlesFilename), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    int sep = line.indexOf(';');
+                    if (sep < 0) continue;
+                    titleNodes.add(mapping.map(parseInt(line, 0, sep)));
+                    titleList.add(line.substring(sep + 1));
+                }
+            }
+            titleOf = new String[mapping.nodeIds.size];
+            for (int i = 0; i < titleNodes.size; i++) {
+                titleOf[titleNodes.data[i]] = titleList.get(i);
+            }
+        }
+
+        LinkGraph graph = fromEdges(mapping.nodeIds.size, from, to);
+        graph.nodeIds = mapping.nodeIds.toArray();
+        graph.denseIds = mapping.denseIds;
+        if (titleOf != null) {
+            graph.titles = titleOf;
+            graph.indexTitles();
+        }
+        System.err.println(String.format("Read link graph from %s in %.1f seconds", linksFilename, (System.currentTimeMillis() - startTime) / 1000.0));
+        return graph;
+    }
+
+    /**
+     *  Builds a graph from an edge list over the dense nodes 0..numNodes-1. The
+     *  node IDs are the dense IDs, and there are no titles.
+     */
+    static LinkGraph fromEdges( int numNodes, IntList from, IntList to ) {
+        LinkGraph graph = new LinkGraph();
+        graph.numNodes = numNodes;
+        int[] identity = new int[numNodes];
+        for (int i = 0; i < numNodes; i++) {
+            identity[i] = i;
+        }
+        graph.nodeIds = identity;
+        graph.denseIds = identity;
+        graph.titles = new String[numNodes];
+        int[][] forward = buildCsr(numNodes, from, to);
+        graph.outOffsets = forward[0];
+        graph.outTargets = forward[1];
+        int[][] reverse = buildCsr(numNodes, to, from);
+        graph.inOffsets = reverse[0];
+        graph.inSources = reverse[1];
+        return graph;
+    }
+
+    /** Fills titleToNode from titles. */
+    private void indexTitles() {
+        for (int i = 0; i < numNodes; i++) {
+            if (titles[i] != null) {
+                titleToNode.put(titles[i], i);
+            }
+        }
+    }
+
+    /** Parses the decimal integer in <code>s[start..end)</code> without creating substrings. */
+    private static int parseInt( String s, int start, int end ) {
+        while (start < end && s.charAt(start) == ' ') start++;
+        while (end > start && s.charAt(end - 1) == ' ') end--;
+        if (start == end) {
+            throw new NumberFormatException("Empty node ID in: " + s);
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Bad node ID in: " + s);
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     *  Builds CSR offsets and targets from an edge list with a counting sort on
+     *  the sources. Every row is sorted and duplicate edges are removed.
+     */
+    static int[][] buildCsr( int numNodes, IntList sources, IntList targets ) {
+        int[] offsets = new int[numNodes + 1];
+        for (int i = 0; i < sources.size; i++) {
+            offsets[sources.data[i] + 1]++;
+        }
+        for (int i = 0; i < numNodes; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] fill = Arrays.copyOf(offsets, numNodes);
+        int[] edges = new int[sources.size];
+        for (int i = 0; i < sources.size; i++) {
+            edges[fill[sources.data[i]]++] = targets.data[i];
+        }
+        /* sort every row and squeeze out duplicates */
+        int write = 0;
+        int rowStart = 0;
+        for (int node = 0; node < numNodes; node++) {
+            int rowEnd = offsets[node + 1];
+            Arrays.sort(edges, rowStart, rowEnd);
+            offsets[node] = write;
+            for (int i = rowStart; i < rowEnd; i++) {
+                if (i == rowStart || edges[i] != edges[i - 1]) {
+                    edges[write++] = edges[i];
+                }
+            }
+            rowStart = rowEnd;
+        }
+        offsets[numNodes] = write;
+        return new int[][] { offsets, Arrays.copyOf(edges, write) };
+    }
+
+
+    /* --------------------------------------------- */
+
+    /**
+     *  Returns a copy of this graph with the changes of a delta file applied.
+     *  Each line of the delta file is one of
+     *      + nodeID;outNodeID1,...,outNodeIDK     add links
+     *      - nodeID;outNodeID1,...,outNodeIDK     remove links
+     *      +page nodeID;pageTitle                 add a page (or change its title)
+     *      -page nodeID                           remove a page and all its links
+     *  Kept nodes keep their dense IDs, apart from the shift caused by removed pages,
+     *  and new nodes are numbered after them.
+     */
+    public LinkGraph withDelta( String deltaFilename ) throws IOException {
+        IntList addFrom = new IntList();
+        IntList addTo = new IntList();
+        HashSet<Long> removedLinks = new HashSet<Long>();
+        HashSet<Integer> removedPages = new HashSet<Integer>();
+        HashMap<Integer,String> newTitles = new HashMap<Integer,String>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(deltaFilename), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith("+page ")) {
+                    int sep = line.indexOf(';');
+                    int nodeId = parseInt(line, 6, sep);
+                    newTitles.put(nodeId, line.substring(sep + 1));
+                    removedPages.remove(nodeId);
+                }
+                else if (line.startsWith("-page ")) {
+                    removedPages.add(parseInt(line, 6, line.length()));
+                }
+                else if (line.startsWith("+") || line.startsWith("-")) {
+                    int sep = line.indexOf(';');
+                    if (sep < 0) continue;
+                    int source = parseInt(line, 1, sep);
+                    for (int start = sep + 1; start < line.length(); ) {
+                        int end = line.indexOf(',', start);
+                        if (end < 0) end = line.length();
+                        if (end > start) {
+                            int target = parseInt(line, start, end);
+                            if (line.charAt(0) == '+') {
+                                addFrom.add(source);
+                                addTo.add(target);
+                                removedLinks.remove(linkKey(source, target));
+                            }
+                            else {
+                                removedLinks.add(linkKey(source, target));
+                            }
+                        }
+                        start = end + 1;
+                    }
+                }
+            }
+        }
+
+        DenseMapping mapping = new DenseMapping();
+        for (int node = 0; node < numNodes; node++) {
+            if (!removedPages.contains(nodeIds[node])) {
+                mapping.map(nodeIds[node]);
+            }
+        }
+        IntList from = new IntList();
+        IntList to = new IntList();
+        for (int node = 0; node < numNodes; node++) {
+            int source = nodeIds[node];
+            if (removedPages.contains(source)) continue;
+            for (int e = outOffsets[node]; e < outOffsets[node + 1]; e++) {
+                int target = nodeIds[outTargets[e]];
+                if (removedPages.contains(target) || removedLinks.contains(linkKey(source, target))) continue;
+                from.add(mapping.map(source));
+                to.add(mapping.map(target));
+            }
+        }
+        for (int i = 0; i < addFrom.size; i++) {
+            int source = addFrom.data[i], target = addTo.data[i];
+            if (removedPages.contains(source) || removedPages.contains(target) || removedLinks.contains(linkKey(source, target))) continue;
+            from.add(mapping.map(source));
+            to.add(mapping.map(target));
+        }
+        for (int nodeId : newTitles.keySet()) {
+            mapping.map(nodeId);
+        }
+
+        LinkGraph graph = fromEdges(mapping.nodeIds.size, from, to);
+        graph.nodeIds = mapping.nodeIds.toArray();
+        graph.denseIds = mapping.denseIds;
+        for (int node = 0; node < numNodes; node++) {
+            int nodeId = nodeIds[node];
+            if (!removedPages.contains(nodeId)) {
+                graph.titles[mapping.denseIds[nodeId]] = titles[node];
+            }
+        }
+        for (HashMap.Entry<Integer,String> entry : newTitles.entrySet()) {
+            graph.titles[mapping.denseIds[entry.getKey()]] = entry.getValue();
+        }
+        graph.indexTitles();
+        return graph;
+    }
+
+    private static long linkKey( int source, int target ) {
+        return ((long) source << 32) | (target & 0xffffffffL);
+    }
+
+    /**
+     *  Writes the graph back to a links file and a titles file in the text format
+     *  read by <code>read</code>. Each file is written to a temporary name first and
+     *  then moved in place, so readers never see a partial file.
+     */
+    public void writeText( String linksFilename, String titlesFilename ) throws IOException {
+        for (String filename : new String[] { linksFilename, titlesFilename }) {
+            Path parent = Paths.get(filename).toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+        }
+        Path linksTemp = Paths.get(linksFilename + ".tmp");
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(linksTemp.toFile()), StandardCharsets.UTF_8)))) {
+            StringBuilder sb = new StringBuilder();
+            for (int node = 0; node < numNodes; node++) {
+                if (outDegree(node) == 0) continue;
+                sb.setLength(0);
+                sb.append(nodeIds[node]).append(';');
+                for (int e = outOffsets[node]; e < outOffsets[node + 1]; e++) {
+                    if (e > outOffsets[node]) sb.append(',');
+                    sb.append(nodeIds[outTargets[e]]);
+                }
+                writer.println(sb);
+            }
+        }
+        Path titlesTemp = Paths.get(titlesFilename + ".tmp");
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(titlesTemp.toFile()), StandardCharsets.UTF_8)))) {
+            for (int node = 0; node < numNodes; node++) {
+                if (titles[node] != null) {
+                    writer.println(nodeIds[node] + ";" + titles[node]);
+                }
+            }
+        }
+        Files.move(linksTemp, Paths.get(linksFilename), StandardCopyOption.ATOMIC_MOVE);
+        Files.move(titlesTemp, Paths.get(titlesFilename), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    /* --------------------------------------------- */
+
+    /** Identifies a binary link graph file. */
+    private static final int MAGIC = 0x4c4e4b31; /* "LNK1" */
+
+    /**
+     *  Loads the graph from the binary cache file if it was made from the current
+     *  versions of the links and titles files. Otherwise the text files are read
+     *  and the cache file is (re)written.
+     */
+    public static LinkGraph load( String linksFilename, String titlesFilename, String cacheFilename ) throws IOException {
+        long[] stamp = sourceStamp(linksFilename, titlesFilename);
+        if (cacheFilename != null && new File(cacheFilename).isFile()) {
+            try {
+                LinkGraph graph = map(cacheFilename, stamp);
+                if (graph != null) return graph;
+                System.err.println("Link graph cache " + cacheFilename + " is out of date");
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Could not read link graph cache " + cacheFilename + ": " + e);
+            }
+        }
+        LinkGraph graph = read(linksFilename, titlesFilename);
+        if (cacheFilename != null) {
+            try {
+                graph.write(cacheFilename, stamp);
+            } catch (IOException e) {
+                System.err.println("Could not write link graph cache " + cacheFilename + ": " + e.getMessage());
+            }
+        }
+        return graph;
+    }
+
+    /** Sizes and modification times of the source files, used to detect a stale cache. */
+    private static long[] sourceStamp( String linksFilename, String titlesFilename ) {
+        File links = new File(linksFilename);
+        File titles = titlesFilename == null ? null : new File(titlesFilename);
+        return new long[] {
+            links.length(), links.lastModified(),
+            titles == null ? -1 : titles.length(), titles == null ? -1 : titles.lastModified()
+        };
+    }
+
+    /**
+     *  Writes the graph to a binary file:
+     *      magic, 4 source stamp longs, numNodes, numEdges,
+     *      nodeIds[numNodes], outOffsets[numNodes+1], outTargets[numEdges],
+     *      inOffsets[numNodes+1], inSources[numEdges],
+     *      title offsets[numNodes+1], title bytes (UTF-8)
+     *  A node without a title has its offset stored as -offset-1.
+     *  The file is written to a temporary name first and then moved in place.
+     */
+    void write( String cacheFilename, long[] stamp ) throws IOException {
+        Path target = Paths.get(cacheFilename);
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+        Path temp = Paths.get(cacheFilename + ".tmp");
+        ByteArrayOutputStream titleBytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp.toFile()), 1 << 16))) {
+            out.writeInt(MAGIC);
+            for (long value : stamp) {
+                out.writeLong(value);
+            }
+            out.writeInt(numNodes);
+            out.writeInt(numEdges());
+            writeInts(out, nodeIds);
+            writeInts(out, outOffsets);
+            writeInts(out, outTargets);
+            writeInts(out, inOffsets);
+            writeInts(out, inSources);
+            for (int i = 0; i < numNodes; i++) {
+                if (titles[i] == null) {
+                    out.writeInt(-titleBytes.size() - 1);
+                }
+                else {
+                    out.writeInt(titleBytes.size());
+                    titleBytes.write(titles[i].getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            out.writeInt(titleBytes.size());
+            titleBytes.writeTo(out);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeInts( DataOutputStream out, int[] values ) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     *  Memory-maps a binary graph file written by <code>write</code>. Returns null
+     *  if the file was made from other versions of the source files.
+     */
+    static LinkGraph map( String cacheFilename, long[] stamp ) throws IOException {
+        long startTime = System.currentTimeMillis();
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(Paths.get(cacheFilename), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("not a link graph file");
+        }
+        for (long value : stamp) {
+            if (buffer.getLong() != value) return null;
+        }
+        LinkGraph graph = new LinkGraph();
+        graph.numNodes = buffer.getInt();
+        int numEdges = buffer.getInt();
+        graph.nodeIds = readInts(buffer, graph.numNodes);
+        graph.outOffsets = readInts(buffer, graph.numNodes + 1);
+        graph.outTargets = readInts(buffer, numEdges);
+        graph.inOffsets = readInts(buffer, graph.numNodes + 1);
+        graph.inSources = readInts(buffer, numEdges);
+        int[] titleOffsets = readInts(buffer, graph.numNodes + 1);
+        int titlesStart = buffer.position();
+
+        int maxNodeId = -1;
+        for (int i = 0; i < graph.numNodes; i++) {
+            maxNodeId = Math.max(maxNodeId, graph.nodeIds[i]);
+        }
+        graph.denseIds = new int[maxNodeId + 1];
+        Arrays.fill(graph.denseIds, -1);
+        for (int i = 0; i < graph.numNodes; i++) {
+            graph.denseIds[graph.nodeIds[i]] = i;
+        }
+
+        graph.titles = new String[graph.numNodes];
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < graph.numNodes; i++) {
+            int start = titleOffsets[i];
+            if (start < 0) continue;
+            int next = titleOffsets[i + 1];
+            int length = (next < 0 ? -next - 1 : next) - start;
+            if (length > bytes.length) bytes = new byte[length];
+            buffer.position(titlesStart + start);
+            buffer.get(bytes, 0, length);
+            graph.titles[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+        graph.indexTitles();
+        System.err.println(String.format("Mapped link graph from %s in %.1f seconds", cacheFilename, (System.currentTimeMillis() - startTime) / 1000.0));
+        return graph;
+    }
+
+    /**
+     *  Copies the next <code>count</code> ints of the buffer into an array and
+     *  skips past them. One bulk read costs far less than reading the mapped
+     *  ints one by one in every ranking iteration.
+     */
+    private static int[] readInts( MappedByteBuffer buffer, int count ) {
+        int[] values = new int[count];
+        buffer.slice().asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * count);
+        return values;
+    }
+}
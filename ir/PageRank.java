@@ -0,0 +1,457 @@
+package ir;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ *  Computes PageRank on a link graph in CSR form.
+ *
+ *  The exact mode is a power iteration that pulls scores along the in-links,
+ *  so every node is updated independently and the iteration runs in parallel.
+ *  The rank of dangling nodes (nodes without out-links) is spread evenly over
+ *  all nodes. The Monte Carlo mode instead runs a number of random walks from
+ *  every node, stopping at dangling nodes, and counts the visits; it is much
+ *  cheaper when only an approximation is needed.
+ *
+ *  Usage: java ir.PageRank links_file titles_file [-damping d] [-tol eps] [-mc walks_per_node]
+ *                          [-delta delta_file [-graph links_out titles_out]] [-o rank_file] [-store]
+ *                          [-topics topics_file]
+ *
+ *  -o writes the scores in the "score title" format read by Indexer.readPageRank,
+ *  and -store writes them as a docID-indexed rank store next to the persistent index.
+ *
+ *  -delta applies a file of added and removed links and pages (see LinkGraph.withDelta)
+ *  to the graph of the links and titles files, and refreshes the scores by a power
+ *  iteration that starts from the previous scores in rank_file. A running Engine picks
+ *  up the new rank store without a restart. Once the scores are written, the updated
+ *  graph is saved to the files given with -graph (by default DELTA_LINKS_FNAME and
+ *  DELTA_TITLES_FNAME), which a later delta can start from; the input files are never
+ *  changed.
+ *
+ *  -topics computes topic-sensitive pageranks (see writeTopicRanks), which are
+ *  selected in a query with @topic or @topic:weight.
+ */
+public class PageRank {
+
+    /** Where -delta saves the updated graph by default. */
+    static final String DELTA_LINKS_FNAME = PersistentHashedIndex.INDEXDIR + "/links";
+    static final String DELTA_TITLES_FNAME = PersistentHashedIndex.INDEXDIR + "/titles";
+
+    /** Probability of following a link rather than jumping to a random page. */
+    double damping = 0.85;
+
+    /** Convergence criterion: the L1 change of the scores between two iterations. */
+    double tolerance = 1e-8;
+
+    /** Maximum number of power iterations. */
+    int maxIterations = 1000;
+
+    /** The graph. */
+    final LinkGraph graph;
+
+    /** Number of iterations of the last power iteration. */
+    int lastIterations = 0;
+
+
+    public PageRank( LinkGraph graph ) {
+        this.graph = graph;
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /** Computes the PageRank of every node by power iteration, starting from the uniform distribution. */
+    public double[] powerIteration() {
+        double[] start = new double[graph.numNodes];
+        Arrays.fill(start, 1.0 / graph.numNodes);
+        return powerIteration(start);
+    }
+
+    /**
+     *  Computes the PageRank of every node by power iteration, starting from
+     *  <code>start</code>, which should sum to 1.
+     */
+    public double[] powerIteration( double[] start ) {
+        return powerIteration(start, null);
+    }
+
+    /**
+     *  Computes PageRank by power iteration, with random jumps (and the rank of
+     *  dangling nodes) going to the nodes in proportion to <code>teleport</code>,
+     *  which should sum to 1. A null teleport vector means uniform jumps.
+     */
+    public double[] powerIteration( double[] start, double[] teleport ) {
+        int n = graph.numNodes;
+        if (n == 0) return new double[0];
+        int[] outDegree = new int[n];
+        for (int i = 0; i < n; i++) {
+            outDegree[i] = graph.outDegree(i);
+        }
+        int[] inOffsets = graph.inOffsets, inSources = graph.inSources;
+        double[] rank = start.clone();
+        double[] next = new double[n];
+        double[] share = new double[n];
+        int steps = 0;
+        double change = Double.MAX_VALUE;
+        while (change > tolerance && steps < maxIterations) {
+            final double[] current = rank;
+            /* what every node passes on along each out-link, and the rank held by dangling nodes */
+            double dangling = IntStream.range(0, n).parallel().mapToDouble(i -> {
+                if (outDegree[i] == 0) {
+                    share[i] = 0;
+                    return current[i];
+                }
+                share[i] = current[i] / outDegree[i];
+                return 0;
+            }).sum();
+            final double jump = (1 - damping) + damping * dangling;
+            final double[] updated = next;
+            change = IntStream.range(0, n).parallel().mapToDouble(i -> {
+                double sum = 0;
+                for (int e = inOffsets[i], end = inOffsets[i + 1]; e < end; e++) {
+                    sum += share[inSources[e]];
+                }
+                updated[i] = (teleport == null ? jump / n : jump * teleport[i]) + damping * sum;
+                return Math.abs(updated[i] - current[i]);
+            }).sum();
+            next = rank;
+            rank = updated;
+            steps++;
+        }
+        lastIterations = steps;
+        return rank;
+    }
+
+    /**
+     *  Approximates the PageRank of every node with <code>walksPerNode</code> random
+     *  walks starting from each node. A walk stops with probability 1 - damping at
+     *  every step, and at dangling nodes; the score of a node is its share of all
+     *  visits.
+     */
+    public double[] monteCarlo( int walksPerNode, long seed ) {
+        int n = graph.numNodes;
+        if (n == 0) return new double[0];
+        int[] outOffsets = graph.outOffsets, outTargets = graph.outTargets;
+        int chunk = Math.max(1, (n + Runtime.getRuntime().availableProcessors() - 1) / Runtime.getRuntime().availableProcessors());
+        int numChunks = (n + chunk - 1) / chunk;
+        /* every chunk of start nodes counts visits in its own array, with its own random generator */
+        int[] visits = IntStream.range(0, numChunks).parallel().mapToObj(c -> {
+            SplittableRandom random = new SplittableRandom(seed + c);
+            int[] counts = new int[n];
+            for (int s = c * chunk, end = Math.min(n, s + chunk); s < end; s++) {
+                for (int w = 0; w < walksPerNode; w++) {
+                    int node = s;
+                    while (true) {
+                        counts[node]++;
+                        int first = outOffsets[node], degree = outOffsets[node + 1] - first;
+                        if (degree == 0 || random.nextDouble() >= damping) break;
+                        node = outTargets[first + random.nextInt(degree)];
+                    }
+                }
+            }
+            return counts;
+        }).reduce((a, b) -> {
+            for (int i = 0; i < n; i++) a[i] += b[i];
+            return a;
+        }).get();
+        long total = 0;
+        for (int count : visits) total += count;
+        double[] rank = new double[n];
+        for (int i = 0; i < n; i++) {
+            rank[i] = (double) visits[i] / total;
+        }
+        return rank;
+    }
+
+
+    /**
+     *  Reads the scores of a previous run from a rank file, as a start vector for
+     *  the power iteration. Pages that were not ranked before start from the mean
+     *  score, and the vector is scaled to sum to 1.
+     */
+    double[] previousRanks( String filename ) throws IOException {
+        double[] start = new double[graph.numNodes];
+        Arrays.fill(start, -1);
+        double sum = 0;
+        int found = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                int sep = line.indexOf(' ');
+                if (sep < 0) continue;
+                int node = graph.nodeOf(line.substring(sep + 1));
+                if (node < 0) continue;
+                start[node] = Double.parseDouble(line.substring(0, sep));
+                sum += start[node];
+                found++;
+            }
+        }
+        double mean = found == 0 ? 1.0 / graph.numNodes : sum / found;
+        double total = 0;
+        for (int i = 0; i < start.length; i++) {
+            if (start[i] < 0) start[i] = mean;
+            total += start[i];
+        }
+        for (int i = 0; i < start.length; i++) {
+            start[i] /= total;
+        }
+        return start;
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *  Writes the scores in the "score title" format read by Indexer.readPageRank,
+     *  in descending order. Nodes without a title are left out. The file is
+     *  written to a temporary name first and then moved in place.
+     */
+    void writeRankFile( double[] rank, String filename ) throws IOException {
+        Integer[] order = new Integer[rank.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(rank[b], rank[a]));
+        File temp = new File(filename + ".tmp");
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(temp)))) {
+            for (int node : order) {
+                if (graph.titles[node] != null) {
+                    writer.println(String.format(Locale.ROOT, "%.8f %s", rank[node], graph.titles[node]));
+                }
+            }
+        }
+        Files.move(temp.toPath(), Paths.get(filename), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     *  Reads the document paths of the persistent index from its docInfo file,
+     *  indexed by docID.
+     */
+    static String[] readDocPaths() throws IOException {
+        String[] paths = new String[0];
+        int numDocs = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(PersistentHashedIndex.INDEXDIR + "/" + PersistentHashedIndex.DOCINFO_FNAME))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] data = line.split(";");
+                int docID = Integer.parseInt(data[0]);
+                if (docID >= paths.length) {
+                    paths = Arrays.copyOf(paths, Math.max(docID + 1, 2 * paths.length));
+                }
+                paths[docID] = data[1];
+                numDocs = Math.max(numDocs, docID + 1);
+            }
+        }
+        return Arrays.copyOf(paths, numDocs);
+    }
+
+    /** Returns the node of every document, or -1 for documents that are not in the graph. */
+    int[] docNodes( String[] paths ) {
+        HashMap<String,Integer> nodes = new HashMap<String,Integer>();
+        for (int node = 0; node < graph.numNodes; node++) {
+            if (graph.titles[node] != null) {
+                nodes.put(RankStore.fileName(graph.titles[node]), node);
+            }
+        }
+        int[] docNodes = new int[paths.length];
+        for (int docID = 0; docID < paths.length; docID++) {
+            Integer node = paths[docID] == null ? null : nodes.get(RankStore.fileName(paths[docID]));
+            docNodes[docID] = node == null ? -1 : node;
+        }
+        return docNodes;
+    }
+
+    /**
+     *  Resolves the scores to the docIDs of the persistent index, through its
+     *  docInfo file, and writes them to Engine.PAGERANK_FNAME, with the fingerprint
+     *  of that index as Engine.PAGERANK_INDEX_FNAME. Documents that are not in the
+     *  link graph get 0.
+     */
+    void writeRankStore( double[] rank ) throws IOException {
+        String[] paths = readDocPaths();
+        int[] docNodes = docNodes(paths);
+        double[] scores = new double[docNodes.length];
+        HashMap<Integer,String> docNames = new HashMap<Integer,String>();
+        for (int docID = 0; docID < scores.length; docID++) {
+            scores[docID] = docNodes[docID] < 0 ? 0 : rank[docNodes[docID]];
+            if (paths[docID] != null) docNames.put(docID, paths[docID]);
+        }
+        /* the fingerprint goes first, as a running Engine reloads the scores as soon as they change */
+        RankStore.writeFingerprint(Engine.PAGERANK_INDEX_FNAME, docNames);
+        new RankStore(scores).write(Engine.PAGERANK_FNAME);
+        System.err.println("Wrote the pageranks of " + scores.length + " documents to " + Engine.PAGERANK_FNAME);
+    }
+
+    /**
+     *  Computes a topic-sensitive PageRank vector for every topic of a topics file,
+     *  and writes them to Engine.TOPICS_FNAME, indexed by the docIDs of the
+     *  persistent index. Each line of the topics file is either
+     *      name;prefix;path_prefix    the topic pages are the documents under a path
+     *      name;list;list_file        the topic pages are the titles listed in a file
+     */
+    void writeTopicRanks( String topicsFilename ) throws IOException {
+        String[] paths = readDocPaths();
+        int[] docNodes = docNodes(paths);
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<float[]> vectors = new ArrayList<float[]>();
+        try (BufferedReader br = new BufferedReader(new FileReader(topicsFilename))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] data = line.split(";", 3);
+                if (data.length < 3) continue;
+                boolean[] inTopic = new boolean[graph.numNodes];
+                int size = 0;
+                if ("prefix".equals(data[1])) {
+                    for (int docID = 0; docID < paths.length; docID++) {
+                        if (paths[docID] != null && docNodes[docID] >= 0 && paths[docID].startsWith(data[2]) && !inTopic[docNodes[docID]]) {
+                            inTopic[docNodes[docID]] = true;
+                            size++;
+                        }
+                    }
+                }
+                else if ("list".equals(data[1])) {
+                    try (BufferedReader list = new BufferedReader(new FileReader(data[2]))) {
+                        String title;
+                        while ((title = list.readLine()) != null) {
+                            int node = graph.nodeOf(title.trim());
+                            if (node >= 0 && !inTopic[node]) {
+                                inTopic[node] = true;
+                                size++;
+                            }
+                        }
+                    }
+                }
+                if (size == 0) {
+                    System.err.println("Topic " + data[0] + " has no pages in the link graph, skipping it");
+                    continue;
+                }
+                double[] teleport = new double[graph.numNodes];
+                for (int node = 0; node < teleport.length; node++) {
+                    teleport[node] = inTopic[node] ? 1.0 / size : 0;
+                }
+                long startTime = System.currentTimeMillis();
+                double[] rank = powerIteration(teleport, teleport);
+                float[] vector = new float[docNodes.length];
+                for (int docID = 0; docID < vector.length; docID++) {
+                    vector[docID] = docNodes[docID] < 0 ? 0 : (float) rank[docNodes[docID]];
+                }
+                names.add(data[0]);
+                vectors.add(vector);
+                System.err.println(String.format("Topic %s: %d pages, %d iterations in %.3f seconds",
+                    data[0], size, lastIterations, (System.currentTimeMillis() - startTime) / 1000.0));
+            }
+        }
+        new TopicRanks(names.toArray(new String[0]), vectors.toArray(new float[0][])).write(Engine.TOPICS_FNAME);
+        System.err.println("Wrote " + names.size() + " topic vectors to " + Engine.TOPICS_FNAME);
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    private static boolean sameFile( String a, String b ) throws IOException {
+        return new File(a).getCanonicalFile().equals(new File(b).getCanonicalFile());
+    }
+
+    public static void main( String[] args ) {
+        if (args.length < 2) {
+            System.err.println("Usage: java ir.PageRank links_file titles_file [-damping d] [-tol eps] [-mc walks_per_node] [-delta delta_file [-graph links_out titles_out]] [-o rank_file] [-store] [-topics topics_file]");
+            return;
+        }
+        double damping = 0.85, tolerance = 1e-8;
+        int walks = 0;
+        String rankFile = null;
+        String deltaFile = null;
+        String linksOut = DELTA_LINKS_FNAME, titlesOut = DELTA_TITLES_FNAME;
+        String topicsFile = null;
+        boolean store = false;
+        int i = 2;
+        while (i < args.length) {
+            if ("-damping".equals(args[i]) && i + 1 < args.length) {
+                damping = Double.parseDouble(args[i + 1]);
+                i += 2;
+            } else if ("-tol".equals(args[i]) && i + 1 < args.length) {
+                tolerance = Double.parseDouble(args[i + 1]);
+                i += 2;
+            } else if ("-mc".equals(args[i]) && i + 1 < args.length) {
+                walks = Integer.parseInt(args[i + 1]);
+                i += 2;
+            } else if ("-delta".equals(args[i]) && i + 1 < args.length) {
+                deltaFile = args[i + 1];
+                i += 2;
+            } else if ("-graph".equals(args[i]) && i + 2 < args.length) {
+                linksOut = args[i + 1];
+                titlesOut = args[i + 2];
+                i += 3;
+            } else if ("-topics".equals(args[i]) && i + 1 < args.length) {
+                topicsFile = args[i + 1];
+                i += 2;
+            } else if ("-o".equals(args[i]) && i + 1 < args.length) {
+                rankFile = args[i + 1];
+                i += 2;
+            } else if ("-store".equals(args[i])) {
+                store = true;
+                i++;
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
+        try {
+            if (deltaFile != null && (sameFile(linksOut, args[0]) || sameFile(linksOut, args[1])
+                                      || sameFile(titlesOut, args[0]) || sameFile(titlesOut, args[1]))) {
+                System.err.println("The updated graph would overwrite the input files, give other files with -graph");
+                return;
+            }
+            LinkGraph graph = LinkGraph.read(args[0], args[1]);
+            if (deltaFile != null) {
+                graph = graph.withDelta(deltaFile);
+                System.err.println(String.format("Applied %s: %d pages and %d links", deltaFile, graph.numNodes, graph.numEdges()));
+            }
+            PageRank pr = new PageRank(graph);
+            pr.damping = damping;
+            pr.tolerance = tolerance;
+            long startTime = System.currentTimeMillis();
+            double[] rank;
+            if (walks > 0) {
+                rank = pr.monteCarlo(walks, 42);
+            }
+            else if (deltaFile != null && rankFile != null && new File(rankFile).isFile()) {
+                rank = pr.powerIteration(pr.previousRanks(rankFile));
+            }
+            else {
+                rank = pr.powerIteration();
+            }
+            long elapsedTime = System.currentTimeMillis() - startTime;
+            if (walks > 0) {
+                System.err.println(String.format("Monte Carlo PageRank with %d walks per node in %.3f seconds", walks, elapsedTime / 1000.0));
+            }
+            else {
+                System.err.println(String.format("PageRank: %d iterations in %.3f seconds", pr.lastIterations, elapsedTime / 1000.0));
+            }
+            if (rankFile != null) {
+                pr.writeRankFile(rank, rankFile);
+            }
+            if (store) {
+                pr.writeRankStore(rank);
+            }
+            if (topicsFile != null) {
+                pr.writeTopicRanks(topicsFile);
+            }
+            if (deltaFile != null) {
+                graph.writeText(linksOut, titlesOut);
+                System.err.println("Wrote the updated graph to " + linksOut + " and " + titlesOut);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package ir;
+
+import java.util.Arrays;
+
+/**
+ *  A permuterm index over the terms of a TermTable: every rotation of every
+ *  term followed by an end marker, in sorted order.
+ *
+ *  A wildcard X*Y matches exactly the terms with a rotation starting with
+ *  Y, the end marker and X, which form one range of the sorted rotations. For
+ *  a wildcard with several '*', the range of its first and last part gives the
+ *  candidates, which still need to be checked against the middle parts.
+ *
+ *  A rotation is stored as a long holding the term id in its upper and the
+ *  offset at which the rotation starts in its lower 32 bits, so terms of any
+ *  length have all their rotations. Its characters are read from the term table.
+ */
+public class PermutermIndex {
+
+    /** Marks the end of a term in its rotations. */
+    static final char END = '\0';
+
+    /** Partitions smaller than this are sorted by insertion sort. */
+    private static final int INSERTION_SORT = 12;
+
+    final TermTable terms;
+
+    /** Number of terms in the table when the index was built. */
+    final int size;
+
+    /** Sorted rotations: term id << 32 | start offset. */
+    final long[] rotations;
+
+
+    public PermutermIndex( TermTable terms ) {
+        this.terms = terms;
+        this.size = terms.size();
+        long count = 0;
+        for (int id = 0; id < size; id++) {
+            count += terms.length(id) + 1;
+        }
+        if (count > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Too many rotations for a permuterm index: " + count);
+        }
+        rotations = new long[(int) count];
+        int n = 0;
+        for (int id = 0; id < size; id++) {
+            int length = terms.length(id);
+            for (int offset = 0; offset <= length; offset++) {
+                rotations[n++] = (long) id << 32 | offset;
+            }
+        }
+        sort(0, rotations.length, 0);
+    }
+
+    private static int id( long rotation ) {
+        return (int) (rotation >>> 32);
+    }
+
+    /** Character at <code>depth</code> of a rotation, or -1 past its end. */
+    private int charAt( long rotation, int depth ) {
+        int id = id(rotation), length = terms.length(id);
+        if (depth > length) return -1;
+        int position = (int) rotation + depth;
+        if (position > length) position -= length + 1;
+        return position == length ? END : terms.charAt(id, position);
+    }
+
+    /** Multikey quicksort of rotations[from, to) whose first <code>depth</code> characters are equal. */
+    private void sort( int from, int to, int depth ) {
+        while (to - from > INSERTION_SORT) {
+            int pivot = charAt(rotations[from + (to - from) / 2], depth);
+            int lt = from, gt = to, i = from;
+            while (i < gt) {
+                int c = charAt(rotations[i], depth);
+                if (c < pivot) swap(lt++, i++);
+                else if (c > pivot) swap(i, --gt);
+                else i++;
+            }
+            sort(from, lt, depth);
+            sort(gt, to, depth);
+            if (pivot < 0) return;
+            from = lt;
+            to = gt;
+            depth++;
+        }
+        for (int i = from + 1; i < to; i++) {
+            for (int j = i; j > from && compare(rotations[j - 1], rotations[j], depth) > 0; j--) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    private int compare( long a, long b, int depth ) {
+        for (;; depth++) {
+            int ca = charAt(a, depth), cb = charAt(b, depth);
+            if (ca != cb) return ca - cb;
+            if (ca < 0) return 0;
+        }
+    }
+
+    private void swap( int i, int j ) {
+        long t = rotations[i];
+        rotations[i] = rotations[j];
+        rotations[j] = t;
+    }
+
+    /** Compares a rotation to a key: 0 if the rotation starts with the key. */
+    private int comparePrefix( long rotation, CharSequence key ) {
+        for (int depth = 0; depth < key.length(); depth++) {
+            int c = charAt(rotation, depth);
+            if (c != key.charAt(depth)) return c - key.charAt(depth);
+        }
+        return 0;
+    }
+
+    /** The rotation a wildcard is looked up by: the part after the last '*', END, and the part before the first '*'. */
+    static String key( String wildcard ) {
+        return wildcard.substring(wildcard.lastIndexOf('*') + 1) + END + wildcard.substring(0, wildcard.indexOf('*'));
+    }
+
+    /** Returns the range [from, to) of the rotations starting with a key. */
+    public int[] range( String key ) {
+        int lo = 0, hi = rotations.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (comparePrefix(rotations[mid], key) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        int from = lo;
+        hi = rotations.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (comparePrefix(rotations[mid], key) <= 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return new int[] { from, lo };
+    }
+
+    /** Sorted ids of the terms of the rotations in a range. */
+    public int[] ids( int[] range ) {
+        int[] ids = new int[range[1] - range[0]];
+        for (int i = range[0]; i < range[1]; i++) {
+            ids[i - range[0]] = id(rotations[i]);
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /** Approximate size in memory, in bytes. */
+    public long memoryBytes() {
+        return 8L * rotations.length + 32;
+    }
+}
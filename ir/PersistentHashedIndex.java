@@ -194,8 +194,12 @@ public class PersistentHashedIndex implements Index {
         FileOutputStream fout = new FileOutputStream( INDEXDIR + "/docInfo" );
         for ( Map.Entry<Integer,String> entry : docNames.entrySet() ) {
             Integer key = entry.getKey();
-            String docInfoEntry = key + ";" + entry.getValue() + ";" + docLengths.get(key) + "\n";
-            fout.write( docInfoEntry.getBytes() );
+            String docInfoEntry = key + ";" + entry.getValue() + ";" + docLengths.get(key);
+            /* documents indexed in PageRank order also remember their directory-order docID */
+            if (originalDocIDs.containsKey(key)) {
+                docInfoEntry += ";" + originalDocIDs.get(key);
+            }
+            fout.write( (docInfoEntry + "\n").getBytes() );
         }
         fout.close();
     }
@@ -216,6 +220,9 @@ public class PersistentHashedIndex implements Index {
                 String[] data = line.split(";");
                 docNames.put( new Integer(data[0]), data[1] );
                 docLengths.put( new Integer(data[0]), new Integer(data[2]) );
+                if (data.length > 3) {
+                    originalDocIDs.put( Integer.parseInt(data[0]), Integer.parseInt(data[3]) );
+                }
             }
         }
         freader.close();
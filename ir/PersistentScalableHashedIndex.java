@@ -604,8 +604,11 @@ public class PersistentScalableHashedIndex extends PersistentHashedIndex {
         Collections.sort(docNamesEntries, new DocNamesEntryComparator());
 
         for (DocNamesEntry entry : docNamesEntries) {
-            String docInfoEntry = entry.key + ";" + entry.name + ";" + docLengths.get(entry.key) + "\n";
-            fout.write( docInfoEntry.getBytes() );
+            String docInfoEntry = entry.key + ";" + entry.name + ";" + docLengths.get(entry.key);
+            if (originalDocIDs.containsKey(entry.key)) {
+                docInfoEntry += ";" + originalDocIDs.get(entry.key);
+            }
+            fout.write( (docInfoEntry + "\n").getBytes() );
         }
         fout.close();
     }
@@ -0,0 +1,141 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *  Iterates over the union of several postings lists in docID order, as if
+ *  they were one list, without building the merged list.
+ *
+ *  Used for the expansions of a wildcard term: a k-way merge keeps the lists
+ *  in a heap ordered by their current docID, and the offsets of a document
+ *  are only merged when they are asked for (i.e. for phrase queries, and only
+ *  for documents that contain all the other terms).
+ */
+public class PostingsUnion {
+
+    public static final int END = Integer.MAX_VALUE;
+
+    private final PostingsList[] lists;
+
+    /** Current position in each list. */
+    private final int[] positions;
+
+    /** Indexes of the lists that are not exhausted, as a heap ordered by their current docID. */
+    private final int[] heap;
+    private int heapSize = 0;
+
+    /** Total number of postings of the lists. */
+    private final long size;
+
+
+    public PostingsUnion( List<PostingsList> postingsLists ) {
+        lists = postingsLists.toArray(new PostingsList[0]);
+        positions = new int[lists.length];
+        heap = new int[lists.length];
+        long total = 0;
+        for (int i = 0; i < lists.length; i++) {
+            total += lists[i].size();
+            if (lists[i].size() > 0) {
+                heap[heapSize++] = i;
+            }
+        }
+        size = total;
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    /** Upper bound of the number of documents in the union. */
+    public long size() {
+        return size;
+    }
+
+    /** The current docID, or END once all lists are exhausted. */
+    public int docID() {
+        return heapSize == 0 ? END : current(heap[0]);
+    }
+
+    private int current( int list ) {
+        return lists[list].get(positions[list]).docID;
+    }
+
+    /** Moves to the next document and returns its docID. */
+    public int next() {
+        int docID = docID();
+        if (docID == END) return END;
+        while (heapSize > 0 && current(heap[0]) == docID) {
+            step(positions[heap[0]] + 1);
+        }
+        return docID();
+    }
+
+    /** Moves to the first document whose docID is at least <code>target</code> and returns it. */
+    public int advance( int target ) {
+        while (heapSize > 0 && current(heap[0]) < target) {
+            step(seek(lists[heap[0]], positions[heap[0]], target));
+        }
+        return docID();
+    }
+
+    /** Moves the list at the top of the heap to a new position and restores the heap. */
+    private void step( int position ) {
+        int list = heap[0];
+        positions[list] = position;
+        if (position >= lists[list].size()) {
+            heap[0] = heap[--heapSize];
+        }
+        if (heapSize > 0) {
+            siftDown(0);
+        }
+    }
+
+    /** First position at or after <code>from</code> with a docID of at least <code>target</code>, by galloping. */
+    private static int seek( PostingsList list, int from, int target ) {
+        int size = list.size(), step = 1, lo = from, hi = from;
+        while (hi < size && list.get(hi).docID < target) {
+            lo = hi + 1;
+            hi += step;
+            step <<= 1;
+        }
+        hi = Math.min(hi, size);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (list.get(mid).docID < target) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /** Merged, sorted offsets of the current document in all lists. */
+    public ArrayList<Integer> offsets() {
+        int docID = docID();
+        ArrayList<Integer> offsets = new ArrayList<Integer>();
+        if (docID == END) return offsets;
+        int lists = 0;
+        for (int i = 0; i < heapSize; i++) {
+            PostingsEntry entry = this.lists[heap[i]].get(positions[heap[i]]);
+            if (entry.docID == docID) {
+                offsets.addAll(entry.offset);
+                lists++;
+            }
+        }
+        if (lists > 1) {
+            offsets.sort(null);
+        }
+        return offsets;
+    }
+
+    private void siftDown( int i ) {
+        int list = heap[i], docID = current(list);
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && current(heap[child + 1]) < current(heap[child])) child++;
+            if (current(heap[child]) >= docID) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = list;
+    }
+}
@@ -41,6 +41,20 @@ public class Query {
      *  (only used in assignment 3).
      */
     double beta = 1 - alpha;
+
+    /**
+     *  Weight of the tf-idf score when it is combined with PageRank. PageRank
+     *  gets the remaining 1 - tfIdfWeight. Should be between 0 and 1. Written
+     *  in the query as %weight, e.g. %0.6.
+     */
+    double tfIdfWeight = 0.8;
+
+    /**
+     *  Topics the PageRank part of the ranking is biased towards, with their
+     *  weights. Written in the query as @topic or @topic:weight. When empty,
+     *  the global pageranks are used.
+     */
+    HashMap<String,Double> topicWeights = new HashMap<String,Double>();
     
     
     /**
@@ -56,11 +70,59 @@ public class Query {
     public Query( String queryString  ) {
         StringTokenizer tok = new StringTokenizer( queryString );
         while ( tok.hasMoreTokens() ) {
-            queryterm.add( new QueryTerm(tok.nextToken(), 1.0) );
+            String token = tok.nextToken();
+            if ( token.length() > 1 && token.charAt(0) == '@' ) {
+                addTopic( token.substring(1) );
+            }
+            else if ( token.length() > 1 && token.charAt(0) == '%' && setTfIdfWeight( token.substring(1) )) {
+                /* the weight of tf-idf against PageRank */
+            }
+            else {
+                queryterm.add( new QueryTerm(token, 1.0) );
+            }
         }    
     }
     
     
+    /**
+     *  Adds a topic written as name or name:weight.
+     */
+    private void addTopic( String topic ) {
+        int sep = topic.lastIndexOf(':');
+        double weight = 1.0;
+        if ( sep > 0 ) {
+            try {
+                weight = Double.parseDouble(topic.substring(sep + 1));
+                topic = topic.substring(0, sep);
+            } catch (NumberFormatException e) {
+                /* the colon is part of the topic name */
+            }
+        }
+        topicWeights.put(topic, weight);
+    }
+
+
+    /**
+     *  Sets the tf-idf weight from its text, and returns false if the text is
+     *  not a number, in which case the token is a query term.
+     */
+    private boolean setTfIdfWeight( String weight ) {
+        double w;
+        try {
+            w = Double.parseDouble(weight);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if ( w >= 0 && w <= 1 ) {
+            tfIdfWeight = w;
+        }
+        else {
+            System.err.println("The tf-idf weight should be between 0 and 1, ignoring %" + weight);
+        }
+        return true;
+    }
+
+
     /**
      *  Returns the number of terms
      */
@@ -86,6 +148,8 @@ public class Query {
      */
     public Query copy() {
         Query queryCopy = new Query();
+        queryCopy.tfIdfWeight = tfIdfWeight;
+        queryCopy.topicWeights.putAll(topicWeights);
         for ( QueryTerm t : queryterm ) {
             queryCopy.queryterm.add( new QueryTerm(t.term, t.weight) );
         }
@@ -0,0 +1,160 @@
+package ir;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+/**
+ *  Static per-document scores, such as pageranks, kept in an array indexed
+ *  by docID so that ranking only needs an array read per posting.
+ *
+ *  The scores are stored on disk as a binary file: the number of documents
+ *  followed by one double per docID.
+ */
+public class RankStore implements StaticScores {
+
+    /** Scores indexed by docID. */
+    final double[] scores;
+
+    /** Whether the scores never increase with the docID, computed on first use. */
+    private Boolean descending;
+
+
+    public RankStore( double[] scores ) {
+        this.scores = scores;
+    }
+
+    /** Returns the score of a document, or 0 if the document has none. */
+    public double get( int docID ) {
+        return docID < scores.length ? scores[docID] : 0;
+    }
+
+    /** Number of documents covered by this store. */
+    public int size() {
+        return scores.length;
+    }
+
+    /**
+     *  Whether the scores never increase with the docID, as for an index built in
+     *  PageRank order. Scores refreshed after indexing may no longer be.
+     */
+    public boolean isDescending() {
+        if (descending == null) {
+            boolean result = true;
+            for (int i = 1; i < scores.length && result; i++) {
+                result = scores[i] <= scores[i - 1];
+            }
+            descending = result;
+        }
+        return descending;
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *  Resolves scores keyed by document file name (as read from a rank file) to
+     *  docIDs. Documents without a score get 0, and are reported once here
+     *  rather than failing at query time.
+     */
+    public static RankStore fromNames( Map<String,Double> namedScores, Index index ) {
+        int numDocs = 0;
+        for (int docID : index.docNames.keySet()) {
+            numDocs = Math.max(numDocs, docID + 1);
+        }
+        double[] scores = new double[numDocs];
+        int missing = 0;
+        String example = null;
+        for (Map.Entry<Integer,String> entry : index.docNames.entrySet()) {
+            String name = fileName(entry.getValue());
+            Double score = namedScores.get(name);
+            if (score == null) {
+                missing++;
+                if (example == null) example = name;
+            }
+            else {
+                scores[entry.getKey()] = score;
+            }
+        }
+        if (missing > 0) {
+            System.err.println("Warning: " + missing + " document(s) have no score (e.g. " + example + "), using 0 for them.");
+        }
+        return new RankStore(scores);
+    }
+
+    /**
+     *  Returns a fingerprint of the documents of an index: their docIDs and file
+     *  names. Scores saved by docID are only valid for an index with the same
+     *  fingerprint.
+     */
+    static long fingerprint( Map<Integer,String> docNames ) {
+        long sum = 0;
+        for (Map.Entry<Integer,String> entry : docNames.entrySet()) {
+            long h = ((long) entry.getKey() << 32) ^ fileName(entry.getValue()).hashCode();
+            /* mix each entry (SplitMix64) so that the sum does not depend on their order */
+            h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+            h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+            sum += h ^ (h >>> 31);
+        }
+        return sum;
+    }
+
+    /** Writes the fingerprint of an index to a file, next to scores saved for it. */
+    static void writeFingerprint( String filename, Map<Integer,String> docNames ) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(filename))) {
+            out.writeLong(fingerprint(docNames));
+        }
+    }
+
+    /** Whether a fingerprint file written by writeFingerprint is that of an index. */
+    static boolean isFingerprintOf( String filename, Map<Integer,String> docNames ) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(filename))) {
+            return in.readLong() == fingerprint(docNames);
+        }
+    }
+
+    /**
+     *  Returns the file name at the end of a path. Both '/' and '\' are treated
+     *  as separators, since the index may have been built on another platform.
+     */
+    static String fileName( String path ) {
+        int idx = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+        return path.substring(idx + 1);
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *  Writes the scores to a binary file. The file is written to a temporary name
+     *  first and then moved in place, so a reader never sees a partial file.
+     */
+    public void write( String filename ) throws IOException {
+        File file = new File(filename);
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        File temp = new File(filename + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(scores.length);
+            for (double score : scores) {
+                out.writeDouble(score);
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Reads scores written by <code>write</code>. */
+    public static RankStore read( String filename ) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)))) {
+            double[] scores = new double[in.readInt()];
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] = in.readDouble();
+            }
+            return new RankStore(scores);
+        }
+    }
+}
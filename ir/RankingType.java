@@ -5,5 +5,5 @@ package ir;
  *  the course. 
  */
 public enum RankingType {
-    TF_IDF, PAGERANK, COMBINATION, HITS
+    TF_IDF, PAGERANK, COMBINATION, HITS, HITS_PRIOR
 }
\ No newline at end of file
@@ -0,0 +1,235 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ *  Finds the literal strings that every term matching a regular expression
+ *  must contain, so that the candidate terms can be narrowed down with the
+ *  k-gram index before the expression itself is checked.
+ *
+ *  The expression matches whole terms, so its start and end are the '^' and
+ *  '$' of the k-gram index. Only plain characters are taken as literals:
+ *  groups, classes, '.' and escapes like \d end a run of literals, and an
+ *  optional character is skipped. A run is only ever cut short, never joined
+ *  across something that is not a literal, so the strings found are always
+ *  contained in every match.
+ */
+public class RegexLiterals {
+
+    /** Escapes of a single character class or boundary, which are skipped like any other non-literal. */
+    private static final String SIMPLE_ESCAPES = "dDwWsSbB";
+
+    /** Constructs whose literals are hard to read off: inline flags (e.g. (?i)), quoting, and other escapes. */
+    private static final Pattern UNSUPPORTED = Pattern.compile("\\(\\?|\\\\[a-zA-Z0-9]");
+
+    /** Exact repetitions longer than this are taken as this many characters followed by more. */
+    private static final int MAX_REPEAT = 8;
+
+
+    /**
+     *  Returns the required literals of each top-level alternative of a
+     *  regular expression, or null if the expression uses a construct whose
+     *  literals are not found. A term matching the expression contains all the
+     *  strings of at least one alternative, with '^' and '$' around the term.
+     */
+    static List<List<String>> requiredLiterals( String regex ) {
+        Matcher unsupported = UNSUPPORTED.matcher(regex);
+        while (unsupported.find()) {
+            String match = unsupported.group();
+            if (match.length() == 2 && match.charAt(0) == '\\' && SIMPLE_ESCAPES.indexOf(match.charAt(1)) >= 0) continue;
+            return null;
+        }
+        List<List<String>> alternatives = new ArrayList<List<String>>();
+        for (String alternative : splitAlternatives(regex)) {
+            alternatives.add(literals(alternative));
+        }
+        return alternatives;
+    }
+
+    /**
+     *  Lowercases the literal characters of a regular expression, like the rest
+     *  of a query, without changing what its escapes and classes mean: \D must
+     *  not become \d, nor [A-Z] become [a-z]. Escaped characters and classes
+     *  are kept as they are.
+     */
+    static String lowercaseLiterals( String regex ) {
+        StringBuilder sb = new StringBuilder(regex.length());
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                /* \cX names a control character by the case of X */
+                int end = Math.min(i + (regex.startsWith("\\c", i) ? 3 : 2), regex.length());
+                sb.append(regex, i, end);
+                i = end - 1;
+            }
+            else if (c == '[') {
+                int end = skipClass(regex, i);
+                sb.append(regex, i, end);
+                i = end - 1;
+            }
+            else {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Splits an expression at the '|' that are not inside a group or a class. */
+    private static List<String> splitAlternatives( String regex ) {
+        List<String> alternatives = new ArrayList<String>();
+        int start = 0, depth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            }
+            else if (c == '[') {
+                i = skipClass(regex, i) - 1;
+            }
+            else if (c == '(') {
+                depth++;
+            }
+            else if (c == ')') {
+                depth--;
+            }
+            else if (c == '|' && depth == 0) {
+                alternatives.add(regex.substring(start, i));
+                start = i + 1;
+            }
+        }
+        alternatives.add(regex.substring(start));
+        return alternatives;
+    }
+
+    /** Returns the index after the class starting at <code>start</code>. */
+    private static int skipClass( String regex, int start ) {
+        int i = start + 1;
+        if (i < regex.length() && regex.charAt(i) == '^') i++;
+        /* a ']' right after the opening bracket is a member of the class */
+        if (i < regex.length() && regex.charAt(i) == ']') i++;
+        for (int depth = 1; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            }
+            else if (c == '[') {
+                depth++;
+            }
+            else if (c == ']' && --depth == 0) {
+                return i + 1;
+            }
+        }
+        return regex.length();
+    }
+
+    /** Returns the index after the group starting at <code>start</code>. */
+    private static int skipGroup( String regex, int start ) {
+        int depth = 0;
+        for (int i = start; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            }
+            else if (c == '[') {
+                i = skipClass(regex, i) - 1;
+            }
+            else if (c == '(') {
+                depth++;
+            }
+            else if (c == ')' && --depth == 0) {
+                return i + 1;
+            }
+        }
+        return regex.length();
+    }
+
+    /** The runs of consecutive literals of an expression without top-level alternatives. */
+    private static List<String> literals( String regex ) {
+        List<String> runs = new ArrayList<String>();
+        StringBuilder run = new StringBuilder("^");
+        int n = regex.length();
+        int i = regex.startsWith("^") ? 1 : 0;
+        if (regex.endsWith("$") && !regex.endsWith("\\$")) n--;
+        while (i < n) {
+            char c = regex.charAt(i);
+            /* the literal character matched by the atom, or -1 */
+            int literal = -1;
+            int end = i + 1;
+            if (c == '\\') {
+                end = Math.min(i + 2, n);
+                if (end == i + 2 && !Character.isLetterOrDigit(regex.charAt(i + 1))) literal = regex.charAt(i + 1);
+            }
+            else if (c == '[') {
+                end = skipClass(regex, i);
+            }
+            else if (c == '(') {
+                end = skipGroup(regex, i);
+            }
+            else if (c == '{') {
+                /* a repetition without an atom, which Java applies to the empty string */
+                end = regex.indexOf('}', i) + 1;
+            }
+            else if (c != '.' && c != '^' && c != '$') {
+                literal = c;
+            }
+
+            /* the quantifier of the atom, if any */
+            int min = 1;
+            boolean repeated = false, quantified = true;
+            char q = end < n ? regex.charAt(end) : 0;
+            if (q == '?' || q == '*') {
+                min = 0;
+                end++;
+            }
+            else if (q == '+') {
+                repeated = true;
+                end++;
+            }
+            else if (q == '{') {
+                int close = regex.indexOf('}', end);
+                String[] bounds = regex.substring(end + 1, close).split(",", -1);
+                min = Integer.parseInt(bounds[0]);
+                repeated = bounds.length > 1;
+                end = close + 1;
+            }
+            else {
+                quantified = false;
+            }
+            /* a lazy or possessive quantifier */
+            if (quantified && end < n && (regex.charAt(end) == '?' || regex.charAt(end) == '+')) {
+                end++;
+            }
+            /* Java also accepts repetitions of a repetition, which are not worth reasoning about */
+            while (quantified && end < n && "?*+{".indexOf(regex.charAt(end)) >= 0) {
+                literal = -1;
+                end = regex.charAt(end) == '{' ? regex.indexOf('}', end) + 1 : end + 1;
+            }
+
+            if (literal < 0 || min == 0) {
+                runs.add(run.toString());
+                run.setLength(0);
+            }
+            else {
+                int count = Math.min(min, MAX_REPEAT);
+                for (int j = 0; j < count; j++) {
+                    run.append((char) literal);
+                }
+                if (repeated || min > MAX_REPEAT) {
+                    /* the last repetitions are followed by what comes next */
+                    runs.add(run.toString());
+                    run.setLength(0);
+                    for (int j = 0; j < count; j++) {
+                        run.append((char) literal);
+                    }
+                }
+            }
+            i = end;
+        }
+        run.append('$');
+        runs.add(run.toString());
+        return runs;
+    }
+}
@@ -0,0 +1,167 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ir.Query.QueryTerm;
+
+/**
+ *  Caches search results by query, so that re-running a query (e.g. pressing
+ *  Enter again in the GUI) does not search the index again.
+ *
+ *  The key is a normalized form of the query: its terms and weights (sorted,
+ *  except for phrase queries where the order matters), the query, ranking and
+ *  normalization types, and the other settings that affect the ranking. The
+ *  cache is bounded both by the number of entries and by an estimate of their
+ *  size in bytes, and evicts the least recently used entries first. Entries
+ *  computed before the index last changed (see Index.generation) are dropped
+ *  when they are looked up.
+ */
+public class ResultCache {
+
+    /** Rough size of a cached postings entry, in bytes. */
+    static final int ENTRY_BYTES = 40;
+
+    /** Rough size of a cache entry without its results, in bytes. */
+    static final int OVERHEAD_BYTES = 200;
+
+    /** A cached result. */
+    private static class Entry {
+        final PostingsList results;
+        final long generation;
+        final long bytes;
+        /** Time it took to compute the results. */
+        final long nanos;
+
+        Entry( PostingsList results, long generation, long bytes, long nanos ) {
+            this.results = results;
+            this.generation = generation;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+    }
+
+    /** The entries in access order, least recently used first. Also the lock of the cache. */
+    private final LinkedHashMap<String,Entry> entries = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+
+    /** Maximum number of entries. */
+    private final int maxEntries;
+
+    /** Maximum estimated size of all entries, in bytes. */
+    private final long maxBytes;
+
+    /** Estimated size of all entries, in bytes. */
+    private long bytes = 0;
+
+    /** Statistics. */
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), savedNanos = new AtomicLong();
+
+
+    public ResultCache( int maxEntries, long maxBytes ) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /** Builds the cache key of a search. */
+    static String key( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType, String settings ) {
+        ArrayList<String> terms = new ArrayList<String>();
+        for (QueryTerm qt : query.queryterm) {
+            terms.add(qt.term + "^" + qt.weight);
+        }
+        if (queryType != QueryType.PHRASE_QUERY) {
+            Collections.sort(terms);
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(queryType).append('|').append(rankingType).append('|').append(normType).append('|').append(settings);
+        sb.append('|').append(query.tfIdfWeight);
+        if (!query.topicWeights.isEmpty()) {
+            ArrayList<String> topics = new ArrayList<String>();
+            for (Map.Entry<String,Double> topic : query.topicWeights.entrySet()) {
+                topics.add(topic.getKey() + "^" + topic.getValue());
+            }
+            Collections.sort(topics);
+            sb.append('|').append(String.join(" ", topics));
+        }
+        for (String term : terms) {
+            sb.append('|').append(term);
+        }
+        return sb.toString();
+    }
+
+    /** Returns the cached results for a key, or null. */
+    public PostingsList get( String key ) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.generation != Index.generation.get()) {
+                entries.remove(key);
+                bytes -= entry.bytes;
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        savedNanos.addAndGet(entry.nanos);
+        return entry.results;
+    }
+
+    /**
+     *  Caches the results of a search that took <code>nanos</code> to compute, at the
+     *  index generation the search started at. Empty results are not cached, since
+     *  they may only mean that something (e.g. the link graph) is still loading.
+     */
+    public void put( String key, PostingsList results, long generation, long nanos ) {
+        if (results == null || results.size() == 0 || generation != Index.generation.get()) return;
+        long size = OVERHEAD_BYTES + 2L * key.length() + (long) ENTRY_BYTES * results.size();
+        if (size > maxBytes) return;
+        synchronized (entries) {
+            Entry old = entries.put(key, new Entry(results, generation, size, nanos));
+            bytes += size - (old == null ? 0 : old.bytes);
+            /* evict the least recently used entries, which come first in access order */
+            Iterator<Entry> it = entries.values().iterator();
+            while ((entries.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+                bytes -= it.next().bytes;
+                it.remove();
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    /** Total time the cached searches took when they were first run, summed over all hits. */
+    public double savedMillis() {
+        return savedNanos.get() / 1e6;
+    }
+
+    public String stats() {
+        int numEntries;
+        long numBytes;
+        synchronized (entries) {
+            numEntries = entries.size();
+            numBytes = bytes;
+        }
+        long lookups = hits.get() + misses.get();
+        return String.format("Result cache: %d entries, about %d kB, %d lookups, hit rate %.2f, %.1f ms saved",
+            numEntries, numBytes / 1024, lookups, lookups == 0 ? 0.0 : (double) hits.get() / lookups, savedMillis());
+    }
+}
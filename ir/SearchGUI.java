@@ -64,6 +64,7 @@ public class SearchGUI extends JFrame {
     JRadioButtonMenuItem pagerankItem = new JRadioButtonMenuItem( "PageRank" );
     JRadioButtonMenuItem combinationItem = new JRadioButtonMenuItem( "Combination" );
     JRadioButtonMenuItem hitsItem = new JRadioButtonMenuItem("HITS");
+    JRadioButtonMenuItem hitsPriorItem = new JRadioButtonMenuItem("HITS prior");
     JRadioButtonMenuItem numberOfWordsItem = new JRadioButtonMenuItem( "Number of words" );
     JRadioButtonMenuItem euclideanLengthItem = new JRadioButtonMenuItem( "Euclidean length" );
     ButtonGroup queries = new ButtonGroup();
@@ -106,6 +107,7 @@ public class SearchGUI extends JFrame {
         rankingMenu.add( pagerankItem );
         rankingMenu.add( combinationItem );
         rankingMenu.add( hitsItem );
+        rankingMenu.add( hitsPriorItem );
         normalizationMenu.add(numberOfWordsItem);
         normalizationMenu.add(euclideanLengthItem);
         queries.add( intersectionItem );
@@ -115,6 +117,7 @@ public class SearchGUI extends JFrame {
         ranking.add( pagerankItem );
         ranking.add( combinationItem );
         ranking.add( hitsItem );
+        ranking.add( hitsPriorItem );
         normalization.add(numberOfWordsItem);
         normalization.add(euclideanLengthItem);
         intersectionItem.setSelected( true );
@@ -150,7 +153,7 @@ public class SearchGUI extends JFrame {
                 // Empty the results window
                 displayInfoText( " " );
                 // Turn the search string into a Query
-                String queryString = queryWindow.getText().toLowerCase().trim();
+                String queryString = lowercaseQuery( queryWindow.getText() );
                 query = new Query( queryString );
                 // Take relevance feedback from the user into account (assignment 3)
                 // Check which documents the user has marked as relevant.
@@ -162,6 +165,12 @@ public class SearchGUI extends JFrame {
                     }
                     query.relevanceFeedback( results, relevant, engine );
                 }
+                // HITS needs the link graph, which is loaded in the background. Rather
+                // than making the GUI wait for it, say so and let the user try again.
+                if ( queryType == QueryType.RANKED_QUERY && rankingType == RankingType.HITS && !engine.searcher.isLinkGraphLoaded() ) {
+                    displayInfoText( "The link graph is still loading, try the HITS query again shortly." );
+                    return;
+                }
                 // Search and print results. Access to the index is synchronized since
                 // we don't want to search at the same time we're indexing new files
                 // (this might corrupt the index).
@@ -262,6 +271,13 @@ public class SearchGUI extends JFrame {
             };
         hitsItem.addActionListener( setHITSRanking );
 
+        Action setHITSPriorRanking = new AbstractAction() {
+            public void actionPerformed( ActionEvent e ) {
+                rankingType = RankingType.HITS_PRIOR;
+            }
+            };
+        hitsPriorItem.addActionListener( setHITSPriorRanking );
+
         Action setNumberOfWordsNormalization = new AbstractAction() {
             public void actionPerformed( ActionEvent e ) {
                 normType = NormalizationType.NUMBER_OF_WORDS;
@@ -422,6 +438,22 @@ public class SearchGUI extends JFrame {
     }
 
 
+    /**
+     *  Lowercases a query like the indexed terms. In /regex/ terms only the
+     *  literal characters are lowercased, so that e.g. \D keeps its meaning.
+     */
+    String lowercaseQuery( String text ) {
+        StringBuilder sb = new StringBuilder();
+        StringTokenizer tok = new StringTokenizer( text );
+        while ( tok.hasMoreTokens() ) {
+            String token = tok.nextToken();
+            if ( sb.length() > 0 ) sb.append( ' ' );
+            sb.append( engine.kgIndex.isRegex(token) ? RegexLiterals.lowercaseLiterals(token) : token.toLowerCase() );
+        }
+        return sb.toString();
+    }
+
+
 
 
 
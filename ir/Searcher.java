@@ -1,10 +1,17 @@
 package ir;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import ir.Query.QueryTerm;
 
@@ -19,21 +26,142 @@ public class Searcher {
     /** The k-gram index to be searched by this Searcher */
     KGramIndex kgIndex;
 
-    /** The HITS ranker */
-    HITSRanker hitsRanker;
-    
+    /** The HITS ranker, loaded in the background by <code>loadLinkGraph</code> */
+    CompletableFuture<HITSRanker> hitsRanker;
+
+    /** Default files describing the link graph used by HITS ranking */
+    static final String LINKS_FNAME = "../pagerank/linksDavis.txt";
+    static final String TITLES_FNAME = "../pagerank/davisTitles.txt";
+
+    /** How long a HITS query waits for the link graph before giving up, in milliseconds */
+    long hitsWaitMillis = 2000;
+
+    /** Pageranks indexed by docID. Replaced as a whole when refreshed scores are loaded. */
+    volatile RankStore pageRanks;
+
+    /** Topic-sensitive pageranks, or null if none have been computed */
+    TopicRanks topicRanks;
+
+    /** Static HITS priors indexed by docID: the larger of the global hub and authority score */
+    RankStore hitsPriors;
+
+    /** Single-pass scorer for combined tf-idf and PageRank ranking */
+    CombinedScorer combinedScorer;
+
+    /**
+     *  Number of results kept by ranked queries blended with static scores, and
+     *  by PageRank ranking on an index built in PageRank order, or 0 to return
+     *  all matching documents.
+     */
+    int topK = 0;
+
+    /**
+     *  Number of tf-idf candidates reranked by the second stage of cascade ranking,
+     *  or 0 to rank all matching documents.
+     */
+    int cascadeSize = 0;
+
+    /**
+     *  Links followed per candidate in each direction when cascade ranking expands
+     *  the candidates for HITS, or 0 to follow all of them.
+     */
+    int fanOut = 0;
+
+    /** Maximum number of terms a wildcard expands to. The most frequent terms are kept. */
+    int maxExpansions = 1000;
+
+    /** Cache of term pair intersections for Boolean and phrase queries, or null for no caching */
+    IntersectionCache intersectionCache = new IntersectionCache(32L << 20);
+
+    /** Cache of recent search results, or null for no caching */
+    ResultCache resultCache = new ResultCache(1000, 64L << 20);
+
     /** Constructor */
     public Searcher( Index index, KGramIndex kgIndex ) {
         this.index = index;
         this.kgIndex = kgIndex;
-        this.hitsRanker = new HITSRanker("../pagerank/linksDavis.txt", "../pagerank/davisTitles.txt", this.index);
+        this.combinedScorer = new CombinedScorer(index);
+    }
+
+    /**
+     *  Starts loading the link graph for HITS ranking on a background thread, so
+     *  that startup does not wait for it. The graph is read from the binary cache
+     *  file if it is up to date, and the cache is written otherwise.
+     */
+    public synchronized void loadLinkGraph( String linksFilename, String titlesFilename, String cacheFilename ) {
+        hitsRanker = CompletableFuture.supplyAsync(() -> {
+            LinkGraph graph;
+            try {
+                graph = LinkGraph.load(linksFilename, titlesFilename, cacheFilename);
+            } catch (IOException e) {
+                e.printStackTrace();
+                graph = LinkGraph.empty();
+            }
+            return new HITSRanker(graph, index);
+        }, runnable -> {
+            Thread thread = new Thread(runnable, "link-graph-loader");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    /**
+     *  Whether the link graph for HITS ranking has been loaded, so that a HITS
+     *  query does not wait for it. Loading starts here with the default files if
+     *  <code>loadLinkGraph</code> has not been called.
+     */
+    synchronized boolean isLinkGraphLoaded() {
+        if (hitsRanker == null) {
+            loadLinkGraph(LINKS_FNAME, TITLES_FNAME, null);
+        }
+        return hitsRanker.isDone();
+    }
+
+    /**
+     *  Returns the HITS ranker, waiting at most hitsWaitMillis for the link graph
+     *  to load, or null if it is not ready. Interactive callers should check
+     *  isLinkGraphLoaded first instead of waiting.
+     */
+    HITSRanker hitsRanker() {
+        CompletableFuture<HITSRanker> future;
+        synchronized (this) {
+            isLinkGraphLoaded();
+            future = hitsRanker;
+        }
+        try {
+            return future.get(hitsWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            System.err.println("The link graph is still loading, try the HITS query again shortly.");
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+        return null;
     }
 
     /**
      *  Searches the index for postings matching the query.
      *  @return A postings list representing the result of the query.
      */
-    public PostingsList search( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType ) { 
+    public PostingsList search( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType ) {
+        if (resultCache == null) {
+            return searchIndex(query, queryType, rankingType, normType);
+        }
+        String key = ResultCache.key(query, queryType, rankingType, normType, topK + "," + cascadeSize + "," + fanOut);
+        PostingsList results = resultCache.get(key);
+        if (results == null) {
+            long generation = Index.generation.get();
+            long startTime = System.nanoTime();
+            results = searchIndex(query, queryType, rankingType, normType);
+            resultCache.put(key, results, generation, System.nanoTime() - startTime);
+        }
+        return results;
+    }
+
+    /**
+     *  Searches the index for postings matching the query, bypassing the result cache.
+     *  @return A postings list representing the result of the query.
+     */
+    PostingsList searchIndex( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType ) { 
         //
         //  REPLACE THE STATEMENT BELOW WITH YOUR CODE
         //
@@ -43,6 +171,9 @@ public class Searcher {
         }
         /* ranked query */
         else if (queryType == QueryType.RANKED_QUERY) {
+            if (cascadeSize > 0 && rankingType != RankingType.TF_IDF) {
+                return cascadeSearch(query, rankingType, normType);
+            }
             if (rankingType == RankingType.TF_IDF) {
                 return tfIdfSearch(query.queryterm, normType, query);
             }
@@ -50,11 +181,15 @@ public class Searcher {
                 return pageRankSearch(query.queryterm, normType, query);
             }
             else if (rankingType == RankingType.COMBINATION) {
-                return combinedSearch(query.queryterm, normType, query);
+                StaticScores ranks = rankPrior(query);
+                return combinedScorer.score(expandWildcards(query.queryterm, query), ranks, normType, query.tfIdfWeight, topK);
             }
             else if (rankingType == RankingType.HITS) {
                 return hitsRankSearch(query.queryterm, query);
             }
+            else if (rankingType == RankingType.HITS_PRIOR) {
+                return hitsPriorSearch(query.queryterm, normType, query);
+            }
             else {
                 throw new IllegalArgumentException("No such RankingType!");
             }
@@ -64,28 +199,206 @@ public class Searcher {
         }
     }
 
-    public PostingsList hitsRankSearch(ArrayList<QueryTerm> qt, Query query) {
-        HashSet<Integer> tempEntry = new HashSet<>();
-
-        List<ArrayList<QueryTerm>> possibleCandidates;
+    /**
+     *  Expands every wildcard, regular expression (/regex/) and fuzzy (term~N)
+     *  query term into the list of matching terms. Other terms are kept as they
+     *  are, each in a list of their own.
+     *  Expansions that do not occur in any document are dropped, and at most
+     *  maxExpansions of the most frequent ones are kept.
+     */
+    private List<ArrayList<QueryTerm>> expandWildcards(ArrayList<QueryTerm> qt, Query query) {
         boolean isWildcard = false;
         for (QueryTerm singleQt : qt) {
-            if (this.kgIndex.isWildcard(singleQt.term)) {
+            if (this.kgIndex.isPattern(singleQt.term)) {
                 isWildcard = true;
                 break;
             }
         }
         if (isWildcard) {
-            possibleCandidates = kgIndex.parseWildcard(qt, query);
+            List<ArrayList<QueryTerm>> possibleCandidates = kgIndex.parseWildcard(qt, query);
+            for (int i = 0; i < possibleCandidates.size(); i++) {
+                ArrayList<QueryTerm> expansions = possibleCandidates.get(i);
+                if (expansions.size() <= 1) continue;
+                HashMap<String,Integer> df = new HashMap<String,Integer>();
+                for (QueryTerm term : expansions) {
+                    df.put(term.term, documentFrequency(term.term));
+                }
+                expansions.removeIf(term -> df.get(term.term) == 0);
+                if (expansions.size() > maxExpansions) {
+                    expansions.sort((a, b) -> Integer.compare(df.get(b.term), df.get(a.term)));
+                    System.err.println("Wildcard " + qt.get(i).term + " matches " + expansions.size() + " terms, using the " + maxExpansions + " most frequent");
+                    possibleCandidates.set(i, new ArrayList<QueryTerm>(expansions.subList(0, maxExpansions)));
+                }
+            }
+            return possibleCandidates;
+        }
+        List<ArrayList<QueryTerm>> possibleCandidates = new ArrayList<>();
+        for (QueryTerm singleQt : qt) {
+            ArrayList<QueryTerm> temp = new ArrayList<>();
+            temp.add(singleQt);
+            possibleCandidates.add(temp);
+        }
+        return possibleCandidates;
+    }
+
+    /** Number of documents containing a term. */
+    private int documentFrequency(String term) {
+        Integer df = index.df.get(term);
+        if (df != null) return df;
+        PostingsList pl = index.getPostings(term);
+        return pl == null ? 0 : pl.size();
+    }
+
+    /**
+     *  Whether docIDs were assigned in descending PageRank order at indexing time,
+     *  and the current pageranks still follow that order.
+     */
+    boolean isPageRankOrdered() {
+        return !index.originalDocIDs.isEmpty() && pageRanks.isDescending();
+    }
+
+    /**
+     *  Returns the pageranks to rank a query with: the mix of topic-sensitive
+     *  pageranks selected by the query, or else the global pageranks.
+     */
+    StaticScores rankPrior(Query query) {
+        if (!query.topicWeights.isEmpty()) {
+            if (topicRanks == null) {
+                System.err.println("No topic-sensitive pageranks have been computed, using the global ones.");
+            }
+            else {
+                StaticScores mix = topicRanks.mix(query.topicWeights);
+                if (mix != null) return mix;
+            }
+        }
+        return pageRanks;
+    }
+
+    /** Returns the pagerank of a document. */
+    private double docRank(int docID) {
+        return pageRanks.get(docID);
+    }
+
+    /**
+     *  Sets the static HITS priors from global hub and authority scores. A document
+     *  gets the larger of the two, as in query-time HITS ranking.
+     */
+    void setHitsPriors(RankStore hubs, RankStore authorities) {
+        double[] priors = new double[Math.max(hubs.size(), authorities.size())];
+        for (int docID = 0; docID < priors.length; docID++) {
+            priors[docID] = Math.max(hubs.get(docID), authorities.get(docID));
+        }
+        hitsPriors = new RankStore(priors);
+    }
+
+    /**
+     *  Blends tf-idf with the static HITS priors, like COMBINATION does with
+     *  pageranks. The priors are precomputed offline (see hasHitsPriors).
+     */
+    public PostingsList hitsPriorSearch(ArrayList<QueryTerm> qt, NormalizationType normType, Query query) {
+        if (!hasHitsPriors()) {
+            return new PostingsList();
+        }
+        return combinedScorer.score(expandWildcards(qt, query), hitsPriors, normType, query.tfIdfWeight, topK);
+    }
+
+    /**
+     *  Whether HITS priors for the current index have been loaded. Computing them
+     *  takes HITS over the whole link graph, which is far too slow for a query,
+     *  so otherwise the user is told how to precompute them.
+     */
+    private boolean hasHitsPriors() {
+        if (hitsPriors == null) {
+            System.err.println("No HITS priors for this index. Run \"java ir.HITSRanker links_file titles_file -precompute\" and restart.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     *  Two-stage ranking. The first stage takes the cascadeSize best documents by
+     *  tf-idf. The second stage reranks only those: HITS runs on them and at most
+     *  fanOut links per document in each direction, and the other ranking types
+     *  blend their tf-idf scores with pageranks (or HITS priors) as usual. PageRank
+     *  scores a candidate by its rank times the number of query terms it matches,
+     *  like pageRankSearch, so the two only differ in the documents they consider.
+     */
+    public PostingsList cascadeSearch(Query query, RankingType rankingType, NormalizationType normType) {
+        List<ArrayList<QueryTerm>> possibleCandidates = expandWildcards(query.queryterm, query);
+        PostingsList candidates = combinedScorer.score(possibleCandidates, pageRanks, normType, 1.0, cascadeSize);
+        if (rankingType == RankingType.HITS) {
+            HITSRanker ranker = hitsRanker();
+            return ranker == null ? new PostingsList() : ranker.rank(candidates, fanOut);
+        }
+        StaticScores ranks;
+        double tfIdfWeight;
+        if (rankingType == RankingType.PAGERANK) {
+            ranks = rankPrior(query);
+            tfIdfWeight = 0;
+        }
+        else if (rankingType == RankingType.COMBINATION) {
+            ranks = rankPrior(query);
+            tfIdfWeight = query.tfIdfWeight;
+        }
+        else if (rankingType == RankingType.HITS_PRIOR) {
+            if (!hasHitsPriors()) {
+                return new PostingsList();
+            }
+            ranks = hitsPriors;
+            tfIdfWeight = query.tfIdfWeight;
         }
         else {
-            possibleCandidates = new ArrayList<>();
-            for (QueryTerm singleQt : qt) {
-                ArrayList<QueryTerm> temp = new ArrayList<>();
-                temp.add(singleQt);
-                possibleCandidates.add(temp);
+            throw new IllegalArgumentException("No such RankingType!");
+        }
+        if (candidates.size() == 0) {
+            return candidates;
+        }
+        double[] priors = new double[candidates.size()];
+        int[] matches = rankingType == RankingType.PAGERANK ? matchCounts(candidates, possibleCandidates) : null;
+        double sumTfIdf = 0, sumRank = 0;
+        for (int i = 0; i < candidates.size(); i++) {
+            priors[i] = ranks.get(candidates.get(i).docID) * (matches == null ? 1 : matches[i]);
+            sumTfIdf += candidates.get(i).score;
+            sumRank += priors[i];
+        }
+        double tfIdfScale = sumTfIdf > 0 ? tfIdfWeight / sumTfIdf : 0;
+        double rankScale = sumRank > 0 ? (1 - tfIdfWeight) / sumRank : 0;
+        TopKCollector top = new TopKCollector(candidates.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            PostingsEntry pe = candidates.get(i);
+            top.offer(pe.docID, pe.score * tfIdfScale + priors[i] * rankScale);
+        }
+        return new PostingsList(top.toSortedList());
+    }
+
+    /** Number of postings lists of the (expanded) query terms that contain each candidate. */
+    private int[] matchCounts(PostingsList candidates, List<ArrayList<QueryTerm>> possibleCandidates) {
+        HashMap<Integer, Integer> positions = new HashMap<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            positions.put(candidates.get(i).docID, i);
+        }
+        int[] counts = new int[candidates.size()];
+        for (ArrayList<QueryTerm> qtList : possibleCandidates) {
+            for (QueryTerm term : qtList) {
+                PostingsList pl = index.getPostings(term.term);
+                if (pl == null) continue;
+                for (int i = 0; i < pl.size(); i++) {
+                    Integer position = positions.get(pl.get(i).docID);
+                    if (position != null) counts[position]++;
+                }
             }
         }
+        return counts;
+    }
+
+    public PostingsList hitsRankSearch(ArrayList<QueryTerm> qt, Query query) {
+        HITSRanker ranker = hitsRanker();
+        if (ranker == null) {
+            return new PostingsList();
+        }
+        HashSet<Integer> tempEntry = new HashSet<>();
+
+        List<ArrayList<QueryTerm>> possibleCandidates = expandWildcards(qt, query);
 
         // List<ArrayList<QueryTerm>> possibleCandidates = kgIndex.parseWildcard(qt, query);
 
@@ -102,30 +415,12 @@ public class Searcher {
         for (int id : tempEntry) {
             rootPost.appendEntry(new PostingsEntry(id));
         }
-        PostingsList result = this.hitsRanker.rank(rootPost);
+        PostingsList result = ranker.rank(rootPost);
         return result;
     }
 
     public PostingsList tfIdfSearch(ArrayList<QueryTerm> qt, NormalizationType normType, Query query) {
-        List<ArrayList<QueryTerm>> possibleCandidates;
-        boolean isWildcard = false;
-        for (QueryTerm singleQt : qt) {
-            if (this.kgIndex.isWildcard(singleQt.term)) {
-                isWildcard = true;
-                break;
-            }
-        }
-        if (isWildcard) {
-            possibleCandidates = kgIndex.parseWildcard(qt, query);
-        }
-        else {
-            possibleCandidates = new ArrayList<>();
-            for (QueryTerm singleQt : qt) {
-                ArrayList<QueryTerm> temp = new ArrayList<>();
-                temp.add(singleQt);
-                possibleCandidates.add(temp);
-            }
-        }
+        List<ArrayList<QueryTerm>> possibleCandidates = expandWildcards(qt, query);
 
         // List<ArrayList<QueryTerm>> possibleCandidates = kgIndex.parseWildcard(qt, query);
 
@@ -170,24 +465,11 @@ public class Searcher {
     public PostingsList pageRankSearch(ArrayList<QueryTerm> qt, NormalizationType normType, Query query) {
         // List<ArrayList<QueryTerm>> possibleCandidates = kgIndex.parseWildcard(qt, query);
 
-        List<ArrayList<QueryTerm>> possibleCandidates;
-        boolean isWildcard = false;
-        for (QueryTerm singleQt : qt) {
-            if (this.kgIndex.isWildcard(singleQt.term)) {
-                isWildcard = true;
-                break;
-            }
-        }
-        if (isWildcard) {
-            possibleCandidates = kgIndex.parseWildcard(qt, query);
-        }
-        else {
-            possibleCandidates = new ArrayList<>();
-            for (QueryTerm singleQt : qt) {
-                ArrayList<QueryTerm> temp = new ArrayList<>();
-                temp.add(singleQt);
-                possibleCandidates.add(temp);
-            }
+        List<ArrayList<QueryTerm>> possibleCandidates = expandWildcards(qt, query);
+
+        StaticScores ranks = rankPrior(query);
+        if (topK > 0 && ranks == pageRanks && isPageRankOrdered()) {
+            return pageRankTopK(possibleCandidates);
         }
 
         HashMap<Integer, PostingsEntry> docScore = new HashMap<>();
@@ -199,12 +481,11 @@ public class Searcher {
     
                 for (int i = 0; i < pl.size(); i++) {
                     PostingsEntry pe = pl.get(i);
-                    String[] name = index.docNames.get(pe.docID).split("\\\\");
                     if (docScore.containsKey(pe.docID)) {
-                        docScore.get(pe.docID).score += index.docRanks.get(name[name.length - 1]);
+                        docScore.get(pe.docID).score += ranks.get(pe.docID);
                     }
                     else {
-                        docScore.put(pe.docID, new PostingsEntry(pe.docID, index.docRanks.get(name[name.length - 1])));
+                        docScore.put(pe.docID, new PostingsEntry(pe.docID, ranks.get(pe.docID)));
                     }
                 }
             }
@@ -224,31 +505,72 @@ public class Searcher {
         return new PostingsList(answerPlList);
     }
 
-    public PostingsList combinedSearch(ArrayList<QueryTerm> qt, NormalizationType normType, Query query) {
-        HashMap<Integer, PostingsEntry> docScoreTFIDF = new HashMap<>();
-        HashMap<Integer, PostingsEntry> docScorePR = new HashMap<>();
-        final double TF_IDF_Weight = 0.8;
-
-        List<ArrayList<QueryTerm>> possibleCandidates;
-        boolean isWildcard = false;
-        for (QueryTerm singleQt : qt) {
-            if (this.kgIndex.isWildcard(singleQt.term)) {
-                isWildcard = true;
-                break;
+    /**
+     *  PageRank ranking on an index whose docIDs follow descending PageRank. The
+     *  postings lists are merged in docID order, i.e. from the highest ranked
+     *  document downwards, and the merge stops as soon as no unseen document can
+     *  enter the top k: a document matching m of the n lists scores m times its
+     *  rank, so n times the rank of the next document bounds everything that is left.
+     *  The scores are normalized over the returned documents only.
+     */
+    private PostingsList pageRankTopK(List<ArrayList<QueryTerm>> possibleCandidates) {
+        ArrayList<PostingsList> lists = new ArrayList<>();
+        for (ArrayList<QueryTerm> qtList : possibleCandidates) {
+            for (QueryTerm term : qtList) {
+                PostingsList pl = index.getPostings(term.term);
+                if (pl != null && pl.size() > 0) {
+                    lists.add(pl);
+                }
             }
         }
-        if (isWildcard) {
-            possibleCandidates = kgIndex.parseWildcard(qt, query);
-        }
-        else {
-            possibleCandidates = new ArrayList<>();
-            for (QueryTerm singleQt : qt) {
-                ArrayList<QueryTerm> temp = new ArrayList<>();
-                temp.add(singleQt);
-                possibleCandidates.add(temp);
+        int n = lists.size();
+        int[] pos = new int[n];
+        PriorityQueue<Integer> heads = new PriorityQueue<>(Math.max(n, 1),
+            (a, b) -> Integer.compare(lists.get(a).get(pos[a]).docID, lists.get(b).get(pos[b]).docID));
+        for (int i = 0; i < n; i++) {
+            heads.add(i);
+        }
+
+        TopKCollector top = new TopKCollector(topK);
+        while (!heads.isEmpty()) {
+            int docID = lists.get(heads.peek()).get(pos[heads.peek()]).docID;
+            double rank = docRank(docID);
+            if (top.isFull() && n * rank <= top.threshold()) break;
+            int count = 0;
+            while (!heads.isEmpty() && lists.get(heads.peek()).get(pos[heads.peek()]).docID == docID) {
+                int head = heads.poll();
+                count++;
+                if (++pos[head] < lists.get(head).size()) {
+                    heads.add(head);
+                }
             }
+            top.offer(docID, count * rank);
         }
 
+        ArrayList<PostingsEntry> answerPlList = top.toSortedList();
+        /* normalize */
+        double sum = 0;
+        for (PostingsEntry pe : answerPlList) {
+            sum += pe.score;
+        }
+        for (PostingsEntry pe : answerPlList) {
+            pe.score /= sum;
+        }
+        return new PostingsList(answerPlList);
+    }
+
+    /**
+     *  Combined tf-idf and PageRank ranking using one HashMap of scores for each.
+     *  Ranked queries use the single-pass CombinedScorer instead; this method is
+     *  kept as the reference implementation it is benchmarked against.
+     */
+    public PostingsList combinedSearch(ArrayList<QueryTerm> qt, NormalizationType normType, Query query) {
+        HashMap<Integer, PostingsEntry> docScoreTFIDF = new HashMap<>();
+        HashMap<Integer, PostingsEntry> docScorePR = new HashMap<>();
+        final double TF_IDF_Weight = query.tfIdfWeight;
+
+        List<ArrayList<QueryTerm>> possibleCandidates = expandWildcards(qt, query);
+
         // List<ArrayList<QueryTerm>> possibleCandidates = kgIndex.parseWildcard(qt, query);
 
         for (ArrayList<QueryTerm> qtList : possibleCandidates) {
@@ -259,15 +581,14 @@ public class Searcher {
                 for (int i = 0; i < pl.size(); i++) {
                     PostingsEntry pe = pl.get(i);
                     double tf_idf = tf_idf(pl, pe);
-                    String[] name = index.docNames.get(pe.docID).split("\\\\");
                     
                     if (docScoreTFIDF.containsKey(pe.docID)) {
                         docScoreTFIDF.get(pe.docID).score += tf_idf;
-                        docScorePR.get(pe.docID).score += index.docRanks.get(name[name.length - 1]);
+                        docScorePR.get(pe.docID).score += docRank(pe.docID);
                     }
                     else {
                         docScoreTFIDF.put(pe.docID, new PostingsEntry(pe.docID, tf_idf));
-                        docScorePR.put(pe.docID, new PostingsEntry(pe.docID, index.docRanks.get(name[name.length - 1])));                
+                        docScorePR.put(pe.docID, new PostingsEntry(pe.docID, docRank(pe.docID)));
                     }
                 }
             }
@@ -313,38 +634,28 @@ public class Searcher {
     private PostingsList intersect(ArrayList<QueryTerm> qt, QueryType queryType, Query query) {
         // List<ArrayList<QueryTerm>> possibleCandidates = kgIndex.parseWildcard(qt, query);
 
-        List<ArrayList<QueryTerm>> possibleCandidates;
-        boolean isWildcard = false;
-        for (QueryTerm singleQt : qt) {
-            if (this.kgIndex.isWildcard(singleQt.term)) {
-                isWildcard = true;
-                break;
-            }
-        }
-        if (isWildcard) {
-            possibleCandidates = kgIndex.parseWildcard(qt, query);
-        }
-        else {
-            possibleCandidates = new ArrayList<>();
-            for (QueryTerm singleQt : qt) {
-                ArrayList<QueryTerm> temp = new ArrayList<>();
-                temp.add(singleQt);
-                possibleCandidates.add(temp);
-            }
+        List<ArrayList<QueryTerm>> possibleCandidates = expandWildcards(qt, query);
+
+        for (ArrayList<QueryTerm> qtList : possibleCandidates) {
+            if (qtList.isEmpty()) return null;
+            if (qtList.size() > 1) return streamingIntersect(possibleCandidates, queryType);
         }
 
         PostingsList result = new PostingsList();
 
         ArrayList<PostingsList> qtPostings = new ArrayList<PostingsList>();
+        /* the term at each position */
+        ArrayList<String> qtTerms = new ArrayList<String>();
 
         for (ArrayList<QueryTerm> qtList : possibleCandidates) {
-            if (qtList.isEmpty()) return null;
-            PostingsList postingsList = index.getPostings(qtList.get(0).term);
-            for (int i = 1; i < qtList.size(); i++) {
-                postingsList.mergePl(index.getPostings(qtList.get(i).term));
-                if (postingsList == null) return null;
-            }
-            qtPostings.add(postingsList);
+            qtPostings.add(index.getPostings(qtList.get(0).term));
+            qtTerms.add(qtList.get(0).term);
+        }
+
+        if (intersectionCache != null && qtPostings.size() > 1) {
+            return queryType == QueryType.PHRASE_QUERY
+                ? cachedPhraseIntersect(qtPostings, qtTerms)
+                : cachedIntersect(qtPostings, qtTerms);
         }
 
         /* list of postingsList to be intersected: sort by increasing frequency in order to reduce time*/
@@ -371,6 +682,166 @@ public class Searcher {
         return result;
     }
 
+    /**
+     *  Intersection or phrase search where some query terms are wildcards. The
+     *  postings of the expansions of each term are read through one PostingsUnion
+     *  instead of being merged, and the unions are intersected lazily, driven by
+     *  the smallest one. Offsets are only merged for documents containing all the
+     *  terms. Expansions whose postings lie outside the docID range shared by all
+     *  terms cannot contribute and are left out.
+     */
+    private PostingsList streamingIntersect(List<ArrayList<QueryTerm>> possibleCandidates, QueryType queryType) {
+        int n = possibleCandidates.size();
+        ArrayList<ArrayList<PostingsList>> expansions = new ArrayList<ArrayList<PostingsList>>();
+        int lo = 0, hi = Integer.MAX_VALUE;
+        for (ArrayList<QueryTerm> qtList : possibleCandidates) {
+            ArrayList<PostingsList> lists = new ArrayList<PostingsList>();
+            int first = Integer.MAX_VALUE, last = -1;
+            for (QueryTerm term : qtList) {
+                PostingsList pl = index.getPostings(term.term);
+                if (pl == null || pl.size() == 0) continue;
+                lists.add(pl);
+                first = Math.min(first, pl.get(0).docID);
+                last = Math.max(last, pl.get(pl.size() - 1).docID);
+            }
+            if (lists.isEmpty()) return null;
+            lo = Math.max(lo, first);
+            hi = Math.min(hi, last);
+            expansions.add(lists);
+        }
+        PostingsList result = new PostingsList();
+        if (lo > hi) return result;
+
+        PostingsUnion[] unions = new PostingsUnion[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            ArrayList<PostingsList> useful = new ArrayList<PostingsList>();
+            for (PostingsList pl : expansions.get(i)) {
+                if (pl.get(0).docID <= hi && pl.get(pl.size() - 1).docID >= lo) {
+                    useful.add(pl);
+                }
+            }
+            unions[i] = new PostingsUnion(useful);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(unions[a].size(), unions[b].size()));
+
+        PostingsUnion driver = unions[order[0]];
+        int candidate = driver.advance(lo);
+        while (candidate <= hi) {
+            int i = 1;
+            for (; i < n; i++) {
+                int docID = unions[order[i]].advance(candidate);
+                if (docID != candidate) {
+                    candidate = driver.advance(docID);
+                    break;
+                }
+            }
+            if (i < n) continue;
+            if (queryType == QueryType.PHRASE_QUERY) {
+                ArrayList<Integer> offsets = unions[0].offsets();
+                for (int p = 1; p < n && !offsets.isEmpty(); p++) {
+                    offsets = reduceOffsetMerge(offsets, unions[p].offsets());
+                }
+                if (!offsets.isEmpty()) {
+                    result.addPostingsEntry(new PostingsEntry(candidate), offsets);
+                }
+            }
+            else {
+                result.addPostingsEntry(new PostingsEntry(candidate), -1);
+            }
+            candidate = driver.next();
+        }
+        return result;
+    }
+
+    /**
+     *  Returns the intersection of a term pair from the intersection cache. On a
+     *  miss the intersection is computed and cached if the cache admits it;
+     *  otherwise null is returned and the caller intersects as usual.
+     */
+    private PostingsList pairIntersect(QueryType queryType, String term1, String term2, PostingsList p1, PostingsList p2) {
+        String key = IntersectionCache.key(queryType, term1, term2);
+        PostingsList cached = intersectionCache.get(key);
+        if (cached != null || p1 == null || p2 == null) return cached;
+        int cost = p1.size() + p2.size();
+        if (!intersectionCache.shouldAdmit(key, cost)) return null;
+        PostingsList pair = queryType == QueryType.PHRASE_QUERY ? positionalIntersect(p1, p2) : positionlessIntersect(p1, p2);
+        intersectionCache.put(key, pair, cost);
+        return pair;
+    }
+
+    /**
+     *  Phrase intersection using cached pairs. The pair (t_i, t_i+1) holds the
+     *  positions of t_i+1 right after t_i, so it can stand in for the postings
+     *  of t_i+1 in the positional intersection: the result is the same, and the
+     *  pair list is never longer.
+     */
+    private PostingsList cachedPhraseIntersect(ArrayList<PostingsList> qtPostings, ArrayList<String> qtTerms) {
+        PostingsList result = qtPostings.get(0);
+        for (int i = 1; i < qtPostings.size() && result != null; i++) {
+            PostingsList next = qtPostings.get(i);
+            PostingsList pair = qtTerms.get(i - 1) == null || qtTerms.get(i) == null ? null
+                : pairIntersect(QueryType.PHRASE_QUERY, qtTerms.get(i - 1), qtTerms.get(i), qtPostings.get(i - 1), next);
+            if (pair == null) {
+                result = positionalIntersect(result, next);
+            }
+            else {
+                result = i == 1 ? pair : positionalIntersect(result, pair);
+            }
+        }
+        return result;
+    }
+
+    /**
+     *  Positionless intersection using cached pairs. Cached pairs among the query
+     *  terms are used first; otherwise the two shortest lists are intersected
+     *  through the cache. The remaining lists are intersected by increasing length.
+     */
+    private PostingsList cachedIntersect(ArrayList<PostingsList> qtPostings, ArrayList<String> qtTerms) {
+        int n = qtPostings.size();
+        for (PostingsList pl : qtPostings) {
+            if (pl == null) return null;
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Integer.compare(qtPostings.get(a).size(), qtPostings.get(b).size()));
+
+        boolean[] used = new boolean[n];
+        ArrayList<PostingsList> parts = new ArrayList<PostingsList>();
+        for (int a = 0; a < n; a++) {
+            for (int b = a + 1; b < n && !used[order[a]]; b++) {
+                String t1 = qtTerms.get(order[a]), t2 = qtTerms.get(order[b]);
+                if (used[order[b]] || t1 == null || t2 == null) continue;
+                String key = IntersectionCache.key(QueryType.INTERSECTION_QUERY, t1, t2);
+                if (intersectionCache.contains(key)) {
+                    parts.add(intersectionCache.get(key));
+                    used[order[a]] = used[order[b]] = true;
+                }
+            }
+        }
+        if (parts.isEmpty()) {
+            int first = order[0], second = order[1];
+            if (qtTerms.get(first) != null && qtTerms.get(second) != null) {
+                PostingsList pair = pairIntersect(QueryType.INTERSECTION_QUERY, qtTerms.get(first), qtTerms.get(second),
+                                                  qtPostings.get(first), qtPostings.get(second));
+                if (pair != null) {
+                    parts.add(pair);
+                    used[first] = used[second] = true;
+                }
+            }
+        }
+        for (int i : order) {
+            if (!used[i]) parts.add(qtPostings.get(i));
+        }
+        PostingsList.sortByIncreasingFrequency(parts);
+        PostingsList result = parts.get(0);
+        for (int i = 1; i < parts.size() && result != null; i++) {
+            result = positionlessIntersect(result, parts.get(i));
+        }
+        return result;
+    }
+
     @Deprecated
     private PostingsList mergeWildcardPostings(ArrayList<PostingsList> results) {
         PostingsList finalResult = new PostingsList();
@@ -1,9 +1,12 @@
 package ir;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.PriorityQueue;
 
 import ir.Query.QueryTerm;
 
@@ -14,6 +17,13 @@ public class SpellChecker {
     /** K-gram index to be used by the spell checker */
     KGramIndex kgIndex;
 
+    /** Deletes of the terms, which find candidates faster than the k-gram index, or null if not built. */
+    volatile DeletionIndex deletions = null;
+
+    /** Number of query k-grams of each term id seen while merging postings, and the ids seen. Reused by every check. */
+    private int[] counts = new int[0];
+    private int[] touched = new int[0];
+
     /** The auxiliary class for containing the value of your ranking function for a token */
     class KGramStat implements Comparable {
         double score;
@@ -49,7 +59,7 @@ public class SpellChecker {
       * The threshold for edit distance for a candidate spelling
       * correction to be accepted.
       */
-    private static final int MAX_EDIT_DISTANCE = 2;
+    static final int MAX_EDIT_DISTANCE = 2;
 
 
     public SpellChecker(Index index, KGramIndex kgIndex) {
@@ -76,8 +86,10 @@ public class SpellChecker {
      *      => insert (cost 1)
      *      => delete (cost 1)
      *      => substitute (cost 2)
+     * The full table is computed; check uses EditDistance, which stops at
+     * MAX_EDIT_DISTANCE. Kept as the reference for the benchmark.
      */
-    private int editDistance(String s1, String s2) {
+    static int editDistance(String s1, String s2) {
         //
         // YOUR CODE HERE
         //
@@ -105,7 +117,9 @@ public class SpellChecker {
 
     /**
      *  Checks spelling of all terms in <code>query</code> and returns up to
-     *  <code>limit</code> ranked suggestions for spelling correction.
+     *  <code>limit</code> ranked suggestions for spelling correction. Terms
+     *  in the index, wildcards, and terms without any close candidate are
+     *  kept as they are, and null is returned if nothing is changed.
      */
     public String[] check(Query query, int limit) {
         //
@@ -115,36 +129,43 @@ public class SpellChecker {
         
 
         for (QueryTerm singleQt : query.queryterm) {
-            HashSet<Integer> triedTerms = new HashSet<>();
-            HashSet<String> kgramsQuery = new HashSet<>(kgIndex.kgramsFromWildcard(singleQt.term));
             ArrayList<KGramStat> candidates = new ArrayList<>();
-            for (String kgram : kgramsQuery) {
-                for (KGramPostingsEntry entry : kgIndex.getPostings(kgram)) {
-                    if (triedTerms.contains(entry.tokenID)) continue;
-                    triedTerms.add(entry.tokenID);
-                    /* jaccard */
-                    int intersection = 0;
-                    List<String> kgramsCandidate = new ArrayList<>(kgIndex.kgramsFromWildcard(kgIndex.id2term.get(entry.tokenID)));
-                    for (String kgramCandidate : kgramsCandidate) {
-                        if (kgramsQuery.contains(kgramCandidate)) {
-                            intersection++;
-                        }
-                    }
-                    double jaccard = jaccard(kgramsQuery.size(), kgIndex.id2num.get(entry.tokenID), intersection);
-                    if (jaccard < JACCARD_THRESHOLD) continue;
-                    /* levenstein */
-                    String token = kgIndex.id2term.get(entry.tokenID);
-                    if (editDistance(singleQt.term, token) <= MAX_EDIT_DISTANCE) {
-                        candidates.add(new KGramStat(token, index.getPostings(token).size() * jaccard));
-                    }
+            if (kgIndex.getIDByTerm(singleQt.term) >= 0 || kgIndex.isPattern(singleQt.term)) {
+                /* a known term, or a wildcard, is kept as it is */
+                candidates.add(new KGramStat(singleQt.term, 0));
+                candidatesList.add(candidates);
+                continue;
+            }
+            HashSet<String> kgramsQuery = new HashSet<>(kgIndex.kgramsFromWildcard(singleQt.term));
+            EditDistance distance = new EditDistance(singleQt.term, MAX_EDIT_DISTANCE);
+            DeletionIndex deletes = deletions;
+            if (deletes != null && deletes.isCurrent(kgIndex)) {
+                /* every term within the edit distance shares a delete with the query term */
+                for (int id : deletes.candidates(singleQt.term)) {
+                    KGramStat candidate = score(id, kgramsQuery.size(), overlap(id, kgramsQuery), distance);
+                    if (candidate != null) candidates.add(candidate);
                 }
             }
-            if (candidates.isEmpty()) return null;
+            else {
+                mergeKgramPostings(kgramsQuery, distance, candidates);
+            }
+            if (candidates.isEmpty()) {
+                /* nothing close enough: keep the term, so that the other terms can still be corrected */
+                candidates.add(new KGramStat(singleQt.term, 0));
+            }
             Collections.sort(candidates, Collections.reverseOrder());
             candidatesList.add(candidates);
         }
             
-        List<KGramStat> resultList = mergeCorrections(candidatesList, limit);
+        /* the query itself is not a suggestion, so one more phrase is merged in case it is among them */
+        List<KGramStat> resultList = mergeCorrections(candidatesList, limit + 1);
+        StringBuilder original = new StringBuilder();
+        for (QueryTerm qt : query.queryterm) {
+            if (original.length() > 0) original.append(' ');
+            original.append(qt.term);
+        }
+        resultList.removeIf(stat -> stat.token.equals(original.toString()));
+        if (resultList.isEmpty()) return null;
         int resultNum = Math.min(limit, resultList.size());
         String[] result = new String[resultNum];
         for (int i = 0; i < resultNum; i++) {
@@ -153,32 +174,141 @@ public class SpellChecker {
         return result;
     }
 
+    /**
+     *  Finds the candidate corrections among the terms containing a query
+     *  k-gram by counting, for every term, the query k-grams whose postings
+     *  contain it (ScanCount). A term over the Jaccard threshold contains at
+     *  least T = ceil(JACCARD_THRESHOLD * |query k-grams|) of them, so it is in
+     *  one of the |query k-grams| - T + 1 shortest lists: only those are read
+     *  in full, and the terms found there are looked up in the other lists.
+     *  Terms with too few or too many k-grams to reach the threshold are never
+     *  counted, and only terms over the threshold are read from the term table.
+     */
+    private synchronized void mergeKgramPostings(HashSet<String> kgramsQuery, EditDistance distance, ArrayList<KGramStat> candidates) {
+        int numQuery = kgramsQuery.size();
+        if (numQuery == 0) return;
+        KGramPostings[] lists = new KGramPostings[numQuery];
+        int n = 0;
+        for (String kgram : kgramsQuery) {
+            lists[n++] = kgIndex.getPostings(kgram);
+        }
+        Arrays.sort(lists, Comparator.comparingInt(list -> list == null ? 0 : list.size()));
+        if (counts.length < kgIndex.size()) {
+            counts = new int[kgIndex.size()];
+            touched = new int[kgIndex.size()];
+        }
+
+        /* Jaccard = overlap / (numQuery + numKgrams - overlap) <= min / max of the two sizes */
+        int minOverlap = Math.max(1, (int) Math.ceil(JACCARD_THRESHOLD * numQuery - 1e-9));
+        int minKgrams = minOverlap, maxKgrams = (int) Math.floor(numQuery / JACCARD_THRESHOLD + 1e-9);
+        int numTouched = 0;
+        KGramPostings.Cursor cursor = new KGramPostings.Cursor(null);
+        int numScanned = numQuery - minOverlap + 1;
+        for (int i = 0; i < numScanned; i++) {
+            for (int id = cursor.reset(lists[i]).id(); id != KGramPostings.Cursor.END; id = cursor.next()) {
+                if (counts[id] == 0) {
+                    int numKgrams = kgIndex.numKgrams(id);
+                    if (numKgrams < minKgrams || numKgrams > maxKgrams) continue;
+                    touched[numTouched++] = id;
+                }
+                counts[id]++;
+            }
+        }
+        Arrays.sort(touched, 0, numTouched);
+        for (int i = numScanned; i < numQuery; i++) {
+            cursor.reset(lists[i]);
+            for (int j = 0; j < numTouched && cursor.id() != KGramPostings.Cursor.END; j++) {
+                if (cursor.advance(touched[j]) == touched[j]) counts[touched[j]]++;
+            }
+        }
+
+        for (int j = 0; j < numTouched; j++) {
+            int id = touched[j];
+            KGramStat candidate = score(id, numQuery, counts[id], distance);
+            if (candidate != null) candidates.add(candidate);
+            counts[id] = 0;
+        }
+    }
+
+    /** Number of distinct query k-grams a term contains. */
+    private int overlap(int id, HashSet<String> kgramsQuery) {
+        HashSet<String> shared = new HashSet<>();
+        for (String kgram : kgIndex.kgramsFromWildcard(kgIndex.getTermByID(id))) {
+            if (kgramsQuery.contains(kgram)) {
+                shared.add(kgram);
+            }
+        }
+        return shared.size();
+    }
+
+    /**
+     *  Scores a candidate correction sharing <code>overlap</code> of the
+     *  <code>numQuery</code> query k-grams by its Jaccard coefficient times its
+     *  document frequency, or returns null if it is under the Jaccard threshold
+     *  or over the edit distance.
+     */
+    private KGramStat score(int id, int numQuery, int overlap, EditDistance distance) {
+        /* jaccard */
+        double jaccard = jaccard(numQuery, kgIndex.numKgrams(id), overlap);
+        if (jaccard < JACCARD_THRESHOLD) return null;
+        /* levenstein */
+        String token = kgIndex.getTermByID(id);
+        if (distance.distance(token) > MAX_EDIT_DISTANCE) return null;
+        return new KGramStat(token, index.getPostings(token).size() * jaccard);
+    }
+
+    /** Builds the deletion index of the current terms of the k-gram index, which check then uses. */
+    public DeletionIndex buildDeletionIndex() {
+        DeletionIndex deletes = new DeletionIndex(kgIndex.terms);
+        deletions = deletes;
+        return deletes;
+    }
+
     /**
      *  Merging ranked candidate spelling corrections for all query terms available in
      *  <code>qCorrections</code> into one final merging of query phrases. Returns up
      *  to <code>limit</code> corrected phrases.
+     *
+     *  The phrases are built term by term, keeping only the best <code>limit</code>
+     *  phrases so far. A phrase outside these cannot end up among the best, since
+     *  each of the ones kept would be better with the same ending.
      */
     private List<KGramStat> mergeCorrections(ArrayList<ArrayList<KGramStat>> qCorrections, int limit) {
-        //
-        // YOUR CODE HERE
-        //
-        List<KGramStat> result = null;
+        List<KGramStat> result = new ArrayList<>();
         for (int i = 0; i < qCorrections.size(); i++) {
             if (i == 0) {
-                result = new ArrayList<>(qCorrections.get(0));
-                int resultNum = Math.min(limit, result.size());
-                result = result.subList(0, resultNum);
+                List<KGramStat> first = qCorrections.get(0);
+                result = new ArrayList<>(first.subList(0, Math.min(limit, first.size())));
             }
             else {
-                ArrayList<KGramStat> tempList = new ArrayList<>();
-                for (KGramStat stat1 : result) {
-                    for (KGramStat stat2 : qCorrections.get(i)) {
-                        tempList.add(new KGramStat(stat1.token + " " + stat2.token, stat1.score + stat2.score));
-                    }
-                }
-                Collections.sort(tempList, Collections.reverseOrder());
-                int resultNum = Math.min(limit, tempList.size());
-                result = tempList.subList(0, resultNum);
+                result = topPairs(result, qCorrections.get(i), limit);
+            }
+        }
+        return result;
+    }
+
+    /**
+     *  Returns the <code>limit</code> best phrases made of a phrase and a
+     *  candidate, from two lists sorted by decreasing score. Pairs are taken
+     *  from a heap that starts with the pair of both first: taking pair (i, j) adds
+     *  (i, j + 1), and (i + 1, 0) when j = 0, so every pair is reached once and
+     *  the heap never holds more than <code>limit</code> + 1 of them.
+     */
+    private List<KGramStat> topPairs(List<KGramStat> phrases, List<KGramStat> candidates, int limit) {
+        ArrayList<KGramStat> result = new ArrayList<>();
+        if (phrases.isEmpty() || candidates.isEmpty()) return result;
+        PriorityQueue<int[]> heap = new PriorityQueue<>((a, b) -> Double.compare(
+            phrases.get(b[0]).score + candidates.get(b[1]).score, phrases.get(a[0]).score + candidates.get(a[1]).score));
+        heap.add(new int[] { 0, 0 });
+        while (result.size() < limit && !heap.isEmpty()) {
+            int[] pair = heap.poll();
+            KGramStat phrase = phrases.get(pair[0]), candidate = candidates.get(pair[1]);
+            result.add(new KGramStat(phrase.token + " " + candidate.token, phrase.score + candidate.score));
+            if (pair[1] + 1 < candidates.size()) {
+                heap.add(new int[] { pair[0], pair[1] + 1 });
+            }
+            if (pair[1] == 0 && pair[0] + 1 < phrases.size()) {
+                heap.add(new int[] { pair[0] + 1, 0 });
             }
         }
         return result;
@@ -0,0 +1,11 @@
+package ir;
+
+/**
+ *  Query-independent scores of documents, such as pageranks, looked up by docID
+ *  while ranking.
+ */
+public interface StaticScores {
+
+    /** Returns the score of a document, or 0 if the document has none. */
+    double get( int docID );
+}
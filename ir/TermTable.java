@@ -0,0 +1,201 @@
+package ir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ *  Maps terms to consecutive ids and back without an object per term.
+ *
+ *  The characters of all terms are stored one after the other in a single
+ *  array, and the ids are found through an open-addressing hash table of ints
+ *  that compares against that array.
+ */
+public class TermTable {
+
+    /** Characters of all terms, in id order. */
+    char[] chars = new char[1024];
+    int charsUsed = 0;
+
+    /** Term <code>id</code> is stored at chars[starts[id]] up to chars[starts[id + 1]]. */
+    int[] starts = new int[257];
+
+    int size = 0;
+
+    /** Number of distinct k-grams of term <code>id</code>, set by the k-gram index. */
+    int[] kgramCounts = new int[256];
+
+    /** Hash table of id + 1, where 0 marks an empty slot. Its length is a power of two. */
+    int[] slots = new int[512];
+
+
+    public int size() {
+        return size;
+    }
+
+    /** Returns the id of a term, or -1. */
+    public int get( CharSequence term ) {
+        int mask = slots.length - 1;
+        for (int slot = mix(hash(term)) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (equals(slots[slot] - 1, term)) return slots[slot] - 1;
+        }
+        return -1;
+    }
+
+    /** Returns the id of a term, adding it with the next id if it is new. */
+    public int add( CharSequence term ) {
+        int mask = slots.length - 1;
+        int slot = mix(hash(term)) & mask;
+        for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (equals(slots[slot] - 1, term)) return slots[slot] - 1;
+        }
+        int id = size++;
+        if (charsUsed + term.length() > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(charsUsed + term.length(), chars.length * 2));
+        }
+        for (int i = 0; i < term.length(); i++) {
+            chars[charsUsed++] = term.charAt(i);
+        }
+        if (size + 1 > starts.length) {
+            starts = Arrays.copyOf(starts, starts.length * 2);
+        }
+        starts[size] = charsUsed;
+        if (size > kgramCounts.length) {
+            kgramCounts = Arrays.copyOf(kgramCounts, kgramCounts.length * 2);
+        }
+        slots[slot] = id + 1;
+        if (2 * size > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    public String get( int id ) {
+        return new String(chars, starts[id], starts[id + 1] - starts[id]);
+    }
+
+    public int length( int id ) {
+        return starts[id + 1] - starts[id];
+    }
+
+    public int kgramCount( int id ) {
+        return kgramCounts[id];
+    }
+
+    void setKgramCount( int id, int count ) {
+        kgramCounts[id] = count;
+    }
+
+    public char charAt( int id, int i ) {
+        return chars[starts[id] + i];
+    }
+
+    /** Compares two terms like String.compareTo. */
+    public int compare( int a, int b ) {
+        int lengthA = length(a), lengthB = length(b);
+        for (int i = 0; i < Math.min(lengthA, lengthB); i++) {
+            char ca = chars[starts[a] + i], cb = chars[starts[b] + i];
+            if (ca != cb) return ca - cb;
+        }
+        return lengthA - lengthB;
+    }
+
+    private boolean equals( int id, CharSequence term ) {
+        int start = starts[id], length = starts[id + 1] - start;
+        if (length != term.length()) return false;
+        for (int i = 0; i < length; i++) {
+            if (chars[start + i] != term.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /** Same as String.hashCode, which is cached in the string. */
+    static int hash( CharSequence term ) {
+        if (term instanceof String) return term.hashCode();
+        int h = 0;
+        for (int i = 0; i < term.length(); i++) {
+            h = 31 * h + term.charAt(i);
+        }
+        return h;
+    }
+
+    private int hash( int id ) {
+        int h = 0;
+        for (int i = starts[id]; i < starts[id + 1]; i++) {
+            h = 31 * h + chars[i];
+        }
+        return h;
+    }
+
+    private static int mix( int h ) {
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(hash(id)) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    /** Releases the unused capacity once no more terms are added. */
+    public void trim() {
+        chars = Arrays.copyOf(chars, charsUsed);
+        starts = Arrays.copyOf(starts, size + 1);
+        kgramCounts = Arrays.copyOf(kgramCounts, size);
+    }
+
+    /**
+     *  Writes the table: size, number of characters, number of hash slots,
+     *  starts[size + 1], kgramCounts[size], slots[], chars[].
+     */
+    void write( DataOutputStream out ) throws IOException {
+        out.writeInt(size);
+        out.writeInt(charsUsed);
+        out.writeInt(slots.length);
+        for (int i = 0; i <= size; i++) {
+            out.writeInt(starts[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            out.writeInt(kgramCounts[i]);
+        }
+        for (int slot : slots) {
+            out.writeInt(slot);
+        }
+        for (int i = 0; i < charsUsed; i++) {
+            out.writeChar(chars[i]);
+        }
+    }
+
+    /** Reads a table written by <code>write</code> from the current position of a buffer. */
+    static TermTable read( ByteBuffer buffer ) {
+        TermTable table = new TermTable();
+        table.size = buffer.getInt();
+        table.charsUsed = buffer.getInt();
+        table.slots = new int[buffer.getInt()];
+        table.starts = new int[table.size + 1];
+        table.kgramCounts = new int[table.size];
+        table.chars = new char[table.charsUsed];
+        buffer.asIntBuffer().get(table.starts);
+        buffer.position(buffer.position() + 4 * table.starts.length);
+        buffer.asIntBuffer().get(table.kgramCounts);
+        buffer.position(buffer.position() + 4 * table.kgramCounts.length);
+        buffer.asIntBuffer().get(table.slots);
+        buffer.position(buffer.position() + 4 * table.slots.length);
+        buffer.asCharBuffer().get(table.chars);
+        buffer.position(buffer.position() + 2 * table.chars.length);
+        return table;
+    }
+
+    /** Approximate size in memory, in bytes. */
+    public long memoryBytes() {
+        return 2L * chars.length + 4L * starts.length + 4L * kgramCounts.length + 4L * slots.length + 64;
+    }
+}
@@ -0,0 +1,106 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ *  Keeps the k highest scoring documents seen so far in a binary min-heap
+ *  backed by primitive arrays, so that a scorer can stream documents into
+ *  it without building and sorting the whole result list.
+ */
+public class TopKCollector {
+
+    /** Number of documents to keep. */
+    private final int k;
+
+    /** Heap of document identifiers. */
+    private final int[] docIDs;
+
+    /** Heap of scores, parallel to docIDs. The lowest score is at position 0. */
+    private final double[] scores;
+
+    /** Number of documents currently in the heap. */
+    private int size = 0;
+
+
+    public TopKCollector( int k ) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive!");
+        }
+        this.k = k;
+        this.docIDs = new int[k];
+        this.scores = new double[k];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == k;
+    }
+
+    /**
+     *  Returns the score a document must beat to enter the heap, i.e. the
+     *  k-th best score so far, or negative infinity if the heap is not full.
+     */
+    public double threshold() {
+        return isFull() ? scores[0] : Double.NEGATIVE_INFINITY;
+    }
+
+    /** Offers a document to the collector. */
+    public void offer( int docID, double score ) {
+        if (size < k) {
+            docIDs[size] = docID;
+            scores[size] = score;
+            siftUp(size++);
+        }
+        else if (score > scores[0]) {
+            docIDs[0] = docID;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    /** Returns the collected documents sorted by descending score. */
+    public ArrayList<PostingsEntry> toSortedList() {
+        ArrayList<PostingsEntry> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(new PostingsEntry(docIDs[i], scores[i]));
+        }
+        Collections.sort(result, new PostingsEntry.scoreComparator());
+        return result;
+    }
+
+    private void siftUp( int i ) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (scores[parent] <= scores[i]) break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown( int i ) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) break;
+            int smallest = left;
+            if (left + 1 < size && scores[left + 1] < scores[left]) {
+                smallest = left + 1;
+            }
+            if (scores[i] <= scores[smallest]) break;
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap( int i, int j ) {
+        int d = docIDs[i];
+        docIDs[i] = docIDs[j];
+        docIDs[j] = d;
+        double s = scores[i];
+        scores[i] = scores[j];
+        scores[j] = s;
+    }
+}
@@ -0,0 +1,111 @@
+package ir;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+/**
+ *  Topic-sensitive pageranks: one PageRank vector per topic, computed offline
+ *  with the random jumps restricted to the pages of the topic.
+ *
+ *  The vectors are kept as float arrays indexed by docID. A query selects some
+ *  topics with weights, and documents are then scored by the weighted sum of
+ *  their topic scores, which costs one array read per selected topic.
+ *
+ *  The vectors are stored on disk as a binary file: the number of topics, the
+ *  number of documents, and then for each topic its name followed by one float
+ *  per docID.
+ */
+public class TopicRanks {
+
+    /** Topic names. */
+    final String[] names;
+
+    /** Scores per topic, indexed by docID. */
+    final float[][] scores;
+
+
+    public TopicRanks( String[] names, float[][] scores ) {
+        this.names = names;
+        this.scores = scores;
+    }
+
+    /** Returns the index of a topic, or -1. */
+    public int topicOf( String name ) {
+        for (int t = 0; t < names.length; t++) {
+            if (names[t].equals(name)) return t;
+        }
+        return -1;
+    }
+
+    /**
+     *  Returns the scores of a weighted mix of topics. Unknown topics are
+     *  reported and left out. Returns null if no topic is known.
+     */
+    public StaticScores mix( Map<String,Double> weights ) {
+        int[] topics = new int[weights.size()];
+        double[] topicWeights = new double[weights.size()];
+        int n = 0;
+        for (Map.Entry<String,Double> entry : weights.entrySet()) {
+            int t = topicOf(entry.getKey());
+            if (t < 0) {
+                System.err.println("Unknown topic: " + entry.getKey());
+                continue;
+            }
+            topics[n] = t;
+            topicWeights[n++] = entry.getValue();
+        }
+        if (n == 0) return null;
+        final int numTopics = n;
+        return docID -> {
+            double score = 0;
+            for (int i = 0; i < numTopics; i++) {
+                float[] v = scores[topics[i]];
+                if (docID < v.length) score += topicWeights[i] * v[docID];
+            }
+            return score;
+        };
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /** Writes the vectors to a binary file, through a temporary file that is then moved in place. */
+    public void write( String filename ) throws IOException {
+        File file = new File(filename);
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        File temp = new File(filename + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(names.length);
+            out.writeInt(names.length == 0 ? 0 : scores[0].length);
+            for (int t = 0; t < names.length; t++) {
+                out.writeUTF(names[t]);
+                for (float score : scores[t]) {
+                    out.writeFloat(score);
+                }
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Reads vectors written by <code>write</code>. */
+    public static TopicRanks read( String filename ) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)))) {
+            int numTopics = in.readInt();
+            int numDocs = in.readInt();
+            String[] names = new String[numTopics];
+            float[][] scores = new float[numTopics][numDocs];
+            for (int t = 0; t < numTopics; t++) {
+                names[t] = in.readUTF();
+                for (int i = 0; i < numDocs; i++) {
+                    scores[t][i] = in.readFloat();
+                }
+            }
+            return new TopicRanks(names, scores);
+        }
+    }
+}